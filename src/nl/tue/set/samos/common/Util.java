@@ -146,4 +146,22 @@ public class Util {
 		}
 		return 1;
 	}
+	
+	// the attributes with boolean or integer defaults per type (as extracted in EcoreExtractorImpl), at most 16 per type to be packed in a word 
+	public static String[] getPackedAttributes(String type){
+		if (type == null) return new String[0];
+		switch(type){
+		case "EClass": return new String[]{"abstract", "interface"};
+		case "EDataType": return new String[]{"serializable"};
+		case "EEnum": return new String[]{"serializable"};
+		case "EAttribute": return new String[]{"ordered", "unique", "lowerBound", "upperBound", "many", "required", 
+				"changeable", "volatile", "transient", "unsettable", "derived", "iD"};
+		case "EReference": return new String[]{"ordered", "unique", "lowerBound", "upperBound", "many", "required", 
+				"changeable", "volatile", "transient", "unsettable", "derived", "containment", "container", "resolveProxies"};
+		case "EOperation": return new String[]{"ordered", "unique", "lowerBound", "upperBound", "many", "required"};
+		case "EParameter": return new String[]{"ordered", "unique", "lowerBound", "upperBound", "many", "required"};
+		default: break;
+		}
+		return new String[0];
+	}
 }
@@ -40,6 +40,8 @@ public class NGram extends AggregateFeature{
 			return features;
 		}
 		public final int n;
+		// cached compiled form for the comparisons (see FeatureComparator.compareNGram), not part of the feature itself
+		public transient Object compiledForm;
 		public NGram(ArrayList<SimpleFeature> features) { 
 			this.features = features;
 			n = features.size();
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import java.util.Arrays;
+
+/**
+ * This class solves the (rectangular) linear assignment problem for the n-tree comparison with the Hungarian distance: given a cost matrix with at 
+ * least as many rows as columns, each column is assigned to a different row with the minimum total cost. A single column is a minimum search, up to 
+ * 3 rows are enumerated, and larger problems are solved with shortest augmenting paths (Jonker-Volgenant) on the columns. The cost matrix and the work 
+ * arrays are kept and grown on demand, so an instance is not thread-safe: each FeatureComparator worker has its own. 
+ * 
+ * Which assignment is returned among tied optimal ones is arbitrary (and differs from HungarianAlgorithm). isCountForced tells whether all of them have 
+ * the same number of cells above a cost level, for callers depending on that number. 
+ */
+public class AssignmentSolver {
+	
+	private static final int ENUMERATION_LIMIT = 3;
+	
+	// reduced cost (or total cost difference) up to which cells (or assignments) count as optimal in isCountForced, and the cost of the cells which 
+	// cannot be in an optimal assignment in its counting problems
+	private static final double TIE_TOLERANCE = 1e-9;
+	private static final double EXCLUDED = 1e6;
+	
+	// only the rows x columns top-left cells are used
+	private double[][] cost = new double[0][0];
+	
+	// assigned column for each row (-1 if none), the result of solve
+	private int[] columnByRow = new int[0];
+	
+	// work arrays for the augmenting paths, 1-based with 0 as the sentinel: potentials of the columns (u) and the rows (v), the column assigned to each 
+	// row (p), the previous row on the path (way), the minimum reduced cost for each row (minv) and the rows visited (used)  
+	private double[] u = new double[0], v = new double[0], minv = new double[0];
+	private int[] p = new int[0], way = new int[0];
+	private boolean[] used = new boolean[0];
+	
+	// work arrays for the enumeration
+	private final int[] current = new int[ENUMERATION_LIMIT], best = new int[ENUMERATION_LIMIT];
+	private final boolean[] taken = new boolean[ENUMERATION_LIMIT];
+	private double bestTotal;
+	private int minCount, maxCount;
+	
+	// solver for the counting problems of isCountForced
+	private AssignmentSolver countSolver;
+	
+	// returns the cost matrix to fill for a problem with the given size, rows >= columns
+	public double[][] costMatrix(int rows, int columns) {
+		assert rows >= columns;
+		if (cost.length < rows)
+			cost = new double[rows][rows];
+		return cost;
+	}
+	
+	// assigns each column to a row with the minimum total cost, for the cost matrix filled in (see costMatrix). returns the assigned column for each row, 
+	// or -1 for the rows left out. the returned array is reused by the next call. 
+	public int[] solve(int rows, int columns) {
+		assert rows >= columns && columns > 0;
+		if (columnByRow.length < rows)
+			columnByRow = new int[rows];
+		Arrays.fill(columnByRow, 0, rows, -1);
+		
+		if (columns == 1)
+			solveSingleColumn(rows);
+		else if (rows <= ENUMERATION_LIMIT)
+			solveByEnumeration(rows, columns);
+		else 
+			solveByAugmentingPaths(rows, columns);
+		return columnByRow;
+	}
+	
+	private void solveSingleColumn(int rows) {
+		int bestRow = 0;
+		for (int i=1; i<rows; i++)
+			if (cost[i][0] < cost[bestRow][0])
+				bestRow = i;
+		columnByRow[bestRow] = 0;
+	}
+	
+	private void solveByEnumeration(int rows, int columns) {
+		bestTotal = Double.POSITIVE_INFINITY;
+		enumerate(0, 0.0, rows, columns);
+		for (int j=0; j<columns; j++)
+			columnByRow[best[j]] = j;
+	}
+	
+	private void enumerate(int column, double total, int rows, int columns) {
+		if (column == columns) {
+			if (total < bestTotal) {
+				bestTotal = total;
+				System.arraycopy(current, 0, best, 0, columns);
+			}
+			return;
+		}
+		for (int i=0; i<rows; i++) {
+			if (taken[i])
+				continue;
+			taken[i] = true;
+			current[column] = i;
+			enumerate(column + 1, total + cost[i][column], rows, columns);
+			taken[i] = false;
+		}
+	}
+	
+	// whether all the optimal assignments for the last solved cost matrix (up to TIE_TOLERANCE) have the same number of cells with a cost above the level. 
+	// for the augmenting paths, the optimal assignments are the ones on the tight cells (zero reduced cost) of the final potentials, leaving out only 
+	// rows with a zero potential; the least and the most cells above the level among them are found as assignment problems with 0/1 costs
+	public boolean isCountForced(int rows, int columns, double level) {
+		if (columns == 1) {
+			double min = Double.POSITIVE_INFINITY;
+			for (int i=0; i<rows; i++)
+				min = Math.min(min, cost[i][0]);
+			boolean above = false, below = false;
+			for (int i=0; i<rows; i++)
+				if (cost[i][0] <= min + TIE_TOLERANCE) {
+					if (cost[i][0] > level) above = true;
+					else below = true;
+				}
+			return !(above && below);
+		}
+		
+		if (rows <= ENUMERATION_LIMIT) {
+			minCount = Integer.MAX_VALUE;
+			maxCount = Integer.MIN_VALUE;
+			countOptima(0, 0.0, 0, rows, columns, level);
+			return minCount == maxCount;
+		}
+		
+		boolean tightAbove = false;
+		for (int i=0; i<rows && !tightAbove; i++)
+			for (int j=0; j<columns; j++)
+				if (cost[i][j] > level && cost[i][j] - u[j+1] - v[i+1] <= TIE_TOLERANCE) {
+					tightAbove = true;
+					break;
+				}
+		if (!tightAbove)
+			return true;
+		
+		if (countSolver == null)
+			countSolver = new AssignmentSolver();
+		return countAbove(rows, columns, level, false) == countAbove(rows, columns, level, true);
+	}
+	
+	private void countOptima(int column, double total, int count, int rows, int columns, double level) {
+		if (column == columns) {
+			if (total <= bestTotal + TIE_TOLERANCE) {
+				minCount = Math.min(minCount, count);
+				maxCount = Math.max(maxCount, count);
+			}
+			return;
+		}
+		for (int i=0; i<rows; i++) {
+			if (taken[i])
+				continue;
+			taken[i] = true;
+			countOptima(column + 1, total + cost[i][column], cost[i][column] > level ? count + 1 : count, rows, columns, level);
+			taken[i] = false;
+		}
+	}
+	
+	// the least (or most) cells above the level in an optimal assignment, with the potentials of the augmenting paths. the rows are assigned to the 
+	// columns or to the rows - columns dummy columns, which stand for leaving a row out
+	private int countAbove(int rows, int columns, double level, boolean most) {
+		double[][] counts = countSolver.costMatrix(rows, rows);
+		for (int i=0; i<rows; i++) {
+			for (int j=0; j<columns; j++) {
+				if (cost[i][j] - u[j+1] - v[i+1] > TIE_TOLERANCE)
+					counts[i][j] = EXCLUDED;
+				else 
+					counts[i][j] = (cost[i][j] > level) != most ? 1 : 0;
+			}
+			for (int j=columns; j<rows; j++)
+				counts[i][j] = v[i+1] < -TIE_TOLERANCE ? EXCLUDED : 0;
+		}
+		int[] assignment = countSolver.solve(rows, rows);
+		int count = 0;
+		for (int i=0; i<rows; i++)
+			if (assignment[i] < columns && cost[i][assignment[i]] > level)
+				count++;
+		return count;
+	}
+	
+	// columns are added one by one, each along the shortest augmenting path in the reduced costs, while keeping the potentials feasible
+	private void solveByAugmentingPaths(int rows, int columns) {
+		if (p.length < rows + 1) {
+			u = new double[rows + 1];
+			v = new double[rows + 1];
+			minv = new double[rows + 1];
+			p = new int[rows + 1];
+			way = new int[rows + 1];
+			used = new boolean[rows + 1];
+		}
+		Arrays.fill(u, 0, columns + 1, 0.0);
+		Arrays.fill(v, 0, rows + 1, 0.0);
+		Arrays.fill(p, 0, rows + 1, 0);
+		
+		for (int column=1; column<=columns; column++) {
+			p[0] = column;
+			int row0 = 0;
+			Arrays.fill(minv, 0, rows + 1, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, 0, rows + 1, false);
+			do {
+				used[row0] = true;
+				int column0 = p[row0], row1 = 0;
+				double delta = Double.POSITIVE_INFINITY;
+				for (int row=1; row<=rows; row++) {
+					if (used[row])
+						continue;
+					double reduced = cost[row-1][column0-1] - u[column0] - v[row];
+					if (reduced < minv[row]) {
+						minv[row] = reduced;
+						way[row] = row0;
+					}
+					if (minv[row] < delta) {
+						delta = minv[row];
+						row1 = row;
+					}
+				}
+				for (int row=0; row<=rows; row++) {
+					if (used[row]) {
+						u[p[row]] += delta;
+						v[row] -= delta;
+					}
+					else 
+						minv[row] -= delta;
+				}
+				row0 = row1;
+			} while (p[row0] != 0);
+			
+			// flip the assignments along the path
+			do {
+				int row1 = way[row0];
+				p[row0] = p[row1];
+				row0 = row1;
+			} while (row0 != 0);
+		}
+		
+		for (int row=1; row<=rows; row++)
+			if (p[row] != 0)
+				columnByRow[row-1] = p[row] - 1;
+	}
+}
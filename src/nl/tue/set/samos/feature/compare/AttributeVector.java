@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.tue.set.samos.common.Util;
+import nl.tue.set.samos.feature.AttributedNode;
+
+/**
+ * This class is the encoded form of the attributes of an AttributedNode for comparison, following a schema per type (see Util.getPackedAttributes). 
+ * The boolean and small integer attributes of the type are packed into a word, 4 bits per attribute, with 0 for an absent attribute (i.e. the default 
+ * value), so the number of mismatches between two nodes of the same type is an XOR and a popcount. Values not fitting in 4 bits are escaped and kept 
+ * aside, and the remaining (string valued or unknown) attributes are kept as sorted (key id, value id) vectors with the default values left out. 
+ * The result is the same as FeatureComparator.compareAttributes: a string value never equals a boolean or integer default. 
+*/
+public class AttributeVector {
+	
+	// 4 bit codes: absent (default), true, false, the integers -1..10, and escaped for anything else
+	private static final int ABSENT = 0, TRUE = 1, FALSE = 2, FIRST_INTEGER = 3, MIN_INTEGER = -1, MAX_INTEGER = 10, ESCAPED = 15;
+	private static final long LOW_BITS = 0x1111111111111111L;
+	private static final int[] EMPTY = new int[0];
+	
+	// slot index per packed attribute, per type
+	private static final ConcurrentHashMap<String, HashMap<String, Integer>> schemas = new ConcurrentHashMap<String, HashMap<String, Integer>>();
+	
+	private static HashMap<String, Integer> schemaOf(String type){
+		return schemas.computeIfAbsent(type == null ? "" : type, k -> {
+			String[] packed = Util.getPackedAttributes(type);
+			assert(packed.length <= 16);
+			HashMap<String, Integer> slots = new HashMap<String, Integer>();
+			for (int slot=0; slot<packed.length; slot++)
+				slots.put(packed[slot], slot);
+			return slots;
+		});
+	}
+	
+	private static int code(String value){
+		if (value.equals("true")) return TRUE;
+		if (value.equals("false")) return FALSE;
+		for (int k=MIN_INTEGER; k<=MAX_INTEGER; k++)
+			if (value.equals(Integer.toString(k))) return FIRST_INTEGER + k - MIN_INTEGER;
+		return ESCAPED;
+	}
+	
+	final long packed;
+	// escaped packed attributes, equal only to the same escaped value
+	final int[] escapedKeys;
+	final int[] escapedValues;
+	// other attributes with non-default values
+	final int[] keys;
+	final int[] values;
+	// denominator, the total attribute count for the type
+	final int count;
+	
+	public AttributeVector(AttributedNode node){
+		String type = node.hasAttribute("type") ? node.getType() : null;
+		HashMap<String, Integer> schema = schemaOf(type);
+		
+		long packed = 0;
+		ArrayList<String> escaped = new ArrayList<String>();
+		ArrayList<String> others = new ArrayList<String>();
+		for (String key : node.getAttributes())
+		{
+			if (key.equals("name") || key.equals("type") || key.equals("eType"))
+				continue;
+			
+			String value = node.getAttribute(key);
+			Integer slot = schema.get(key);
+			if (slot != null) {
+				int code = code(value);
+				packed |= ((long) code) << (4 * slot);
+				if (code == ESCAPED) escaped.add(key);
+			}
+			else if (!value.equals(Util.getDefaultAttributeValue(key))) // fill in the default, i.e. leave it out 
+				others.add(key);
+		}
+		this.packed = packed;
+		
+		int[][] escapedVector = sortedVector(node, escaped);
+		escapedKeys = escapedVector[0];
+		escapedValues = escapedVector[1];
+		int[][] otherVector = sortedVector(node, others);
+		keys = otherVector[0];
+		values = otherVector[1];
+		
+		count = type != null ? Util.getTotalAttributeCount(type) : 1;
+	}
+	
+	private static int[][] sortedVector(AttributedNode node, ArrayList<String> keys){
+		if (keys.isEmpty()) return new int[][]{EMPTY, EMPTY};
+		
+		long[] sortedKeys = new long[keys.size()];
+		for (int k=0; k<keys.size(); k++)
+			sortedKeys[k] = ((long) CompiledNGram.symbol(keys.get(k)) << 32) | k;
+		Arrays.sort(sortedKeys);
+		
+		int[][] vector = new int[2][keys.size()];
+		for (int k=0; k<sortedKeys.length; k++)
+		{
+			vector[0][k] = (int) (sortedKeys[k] >>> 32);
+			vector[1][k] = CompiledNGram.symbol(node.getAttribute(keys.get((int) sortedKeys[k])));
+		}
+		return vector;
+	}
+	
+	// the share of the attributes (out of the total count for the type of the first node) with equal values; both nodes are assumed to be of the same type
+	public static double compare(AttributeVector vector1, AttributeVector vector2){
+		// packed: a nonzero nibble in the XOR is a mismatch
+		long diff = vector1.packed ^ vector2.packed;
+		diff |= diff >>> 1;
+		diff |= diff >>> 2;
+		int nonmatch = Long.bitCount(diff & LOW_BITS);
+		
+		// escaped on both sides (otherwise already counted above): compare the values
+		int[] keys1 = vector1.escapedKeys, keys2 = vector2.escapedKeys;
+		for (int a=0, b=0; a < keys1.length && b < keys2.length; )
+		{
+			if (keys1[a] < keys2[b]) a++;
+			else if (keys2[b] < keys1[a]) b++;
+			else {
+				if (vector1.escapedValues[a] != vector2.escapedValues[b]) nonmatch++;
+				a++;
+				b++;
+			}
+		}
+		
+		// the others: present on one side only is a mismatch with the default, otherwise compare the values
+		keys1 = vector1.keys;
+		keys2 = vector2.keys;
+		int a = 0, b = 0;
+		while (a < keys1.length && b < keys2.length)
+		{
+			if (keys1[a] < keys2[b]) {
+				nonmatch++;
+				a++;
+			}
+			else if (keys2[b] < keys1[a]) {
+				nonmatch++;
+				b++;
+			}
+			else {
+				if (vector1.values[a] != vector2.values[b]) nonmatch++;
+				a++;
+				b++;
+			}
+		}
+		nonmatch += (keys1.length - a) + (keys2.length - b);
+		
+		return (1 - ((1.0 * nonmatch) / vector1.count));
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import nl.tue.set.samos.common.Parameters;
+import nl.tue.set.samos.common.Util;
+import nl.tue.set.samos.common.enums.CTX_MATCH;
+import nl.tue.set.samos.common.enums.NGRAM_CMP;
+import nl.tue.set.samos.common.enums.STRUCTURE;
+import nl.tue.set.samos.common.enums.SYNONYM;
+import nl.tue.set.samos.common.enums.SYNONYM_TRESHOLD;
+import nl.tue.set.samos.common.enums.TYPE_MATCH;
+import nl.tue.set.samos.nlp.NLP;
+import nl.tue.set.samos.nlp.SynonymTable;
+
+/**
+ * This class assembles the comparison pipeline of a ComparisonContext for its parameters, out of small stages specialized for the 
+ * type match, synonym and context settings, so the parameters are resolved once per context instead of once per matrix cell. The stages are immutable and shared by all 
+ * the FeatureComparator workers of the context. 
+ */
+public class ComparatorFactory {
+	
+	public static ComparisonPipeline createPipeline(ComparisonContext context) {
+		Parameters parameters = context.parameters;
+		ComparisonStage typeStage, typeValueStage, nameStage, attributeStage;
+		
+		if (parameters._TYPE_MATCH == TYPE_MATCH.IGNORE_TYPE)
+			typeStage = typeValueStage = new ConstantStage(1.0);
+		else {
+			// if exact match then 1.0  anyways
+			// else if relaxed type setting a reduced value
+			// else plain zero
+			double mismatch = parameters._TYPE_MATCH == TYPE_MATCH.RELAXED_TYPE ? FeatureComparator.REDUCED_TM_MULTIPLIER : 0.0;
+			typeStage = new TypeStage(mismatch);
+			typeValueStage = new TypeValueStage(mismatch);
+		}
+		
+		if (parameters._SYNONYM == SYNONYM.NO_SYNONYM)
+			nameStage = new NameStage();
+		else
+			nameStage = new SynonymStage(context.synonymLookup, context.nlp, Util.getSynonymTreshold(parameters._SYNONYM_TRESHOLD), 
+					parameters._SYNONYM_TRESHOLD != SYNONYM_TRESHOLD.NO_WORDNET);
+		
+		// HACK added the second expression to check type match as well, problematic when dealing with unigrams  (always CTX_STRICT)
+		attributeStage = new AttributeStage(parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT && parameters._TYPE_MATCH == TYPE_MATCH.STRICT_TYPE);
+		
+		return new ComparisonPipeline(typeStage, typeValueStage, nameStage, attributeStage, 
+				parameters._TYPE_MATCH != TYPE_MATCH.IGNORE_TYPE, 
+				parameters._NGRAM_CMP == NGRAM_CMP.FIX, 
+				parameters._STRUCTURE == STRUCTURE.NTREE, 
+				parameters._CTX_MATCH);
+	}
+	
+	static final class ConstantStage implements ComparisonStage {
+		private final double value;
+		
+		ConstantStage(double value) { this.value = value; }
+		
+		@Override
+		public double multiplier(CompiledNGram row, int i, CompiledNGram column, int j) {
+			return value;
+		}
+	}
+	
+	// CHECKING TYPES
+	static final class TypeStage implements ComparisonStage {
+		private final double mismatch;
+		
+		TypeStage(double mismatch) { this.mismatch = mismatch; }
+		
+		@Override
+		public double multiplier(CompiledNGram row, int i, CompiledNGram column, int j) {
+			boolean typeExactMatch;
+			if (!row.is(i, CompiledNGram.TYPED) && !column.is(j, CompiledNGram.TYPED))
+				typeExactMatch = true; // HACK
+			else if (!row.is(i, CompiledNGram.TYPED) || !column.is(j, CompiledNGram.TYPED))
+				typeExactMatch = false;
+			else {						
+				typeExactMatch = row.types[i] == column.types[j];
+										
+				// for the case with AttributedNodes & EAttributes, also check eType (i.e. don't generate a bigram for it) TODO proper 
+				if (row.is(i, CompiledNGram.ATTRIBUTED) && column.is(j, CompiledNGram.ATTRIBUTED) 
+						&& row.eTypes[i] != CompiledNGram.NONE && column.eTypes[j] != CompiledNGram.NONE)
+					typeExactMatch = typeExactMatch && row.eTypes[i] == column.eTypes[j];
+			}
+			return typeExactMatch ? 1.0 : mismatch;
+		}
+	}
+	
+	// COPY PASTA FROM ABOVE, for typeValues
+	static final class TypeValueStage implements ComparisonStage {
+		private final double mismatch;
+		
+		TypeValueStage(double mismatch) { this.mismatch = mismatch; }
+		
+		@Override
+		public double multiplier(CompiledNGram row, int i, CompiledNGram column, int j) {
+			boolean typeValueExactMatch;
+			if (!row.is(i, CompiledNGram.TYPE_VALUED) && !column.is(j, CompiledNGram.TYPE_VALUED))
+				typeValueExactMatch = true; // HACK
+			else if (!row.is(i, CompiledNGram.TYPE_VALUED) || !column.is(j, CompiledNGram.TYPE_VALUED))
+				typeValueExactMatch = false;
+			else if (row.is(i, CompiledNGram.ATTRIBUTED) && column.is(j, CompiledNGram.ATTRIBUTED))
+				typeValueExactMatch = row.eTypes[i] == column.eTypes[j]; // TODO do proper NLP compare
+			else // typed valued names have no eType attribute to compare (as AttributedNodes)
+				throw new ClassCastException("cannot compare the type values of typed valued names at positions " + i + " and " + j);
+			return typeValueExactMatch ? 1.0 : mismatch;
+		}
+	}
+	
+	// CHECKING NAMES without synonyms
+	static final class NameStage implements ComparisonStage {
+		@Override
+		public double multiplier(CompiledNGram row, int i, CompiledNGram column, int j) {
+			if (!row.is(i, CompiledNGram.NAMED) && !column.is(j, CompiledNGram.NAMED))
+				return 1; // HACK: as a rule of thumb, assume edges are not included when type checking is off -> domain analysis only
+			else if (!row.is(i, CompiledNGram.NAMED) || !column.is(j, CompiledNGram.NAMED))
+				return 0;
+			return row.names[i] == column.names[j]?1.0:0.0;
+		}
+	}
+	
+	// CHECKING SYNONYMS
+	// TODO tricky situation e.g. when checking a contains b vs. b contains c
+	// case 1: comparing edges TN contains vs TN contains 
+	// case 2: comparing edges TN contains vs TN supertype
+	// type checking is clear, 1 for case 1, 0 for case 2
+	// synonym checking:
+	// if 0 -> negates the effect of type checking, so case 1 and case 2 become same ==> so should not give 0 by default
+	// if 1 -> bias for edges, as ALL the edges are going to be considered similar
+	// ASSUMPTION type checking should always be on when dealing with n-grams + edges included, partly solves the problem for edges of different tyles
+	// PROBLEM: if 1 blindly, then every [X contains Y] always similar to [Z contains W]. 
+	// see workaround in FeatureComparator.compareNGram
+	static final class SynonymStage implements ComparisonStage {
+		private final SynonymTable synonymLookup;
+		// shared by all the workers of a context
+		private final NLP nlp;
+		private final double threshold;
+		private final boolean applyThreshold;
+		
+		SynonymStage(SynonymTable synonymLookup, NLP nlp, double threshold, boolean applyThreshold) {
+			this.synonymLookup = synonymLookup;
+			this.nlp = nlp;
+			this.threshold = threshold;
+			this.applyThreshold = applyThreshold;
+		}
+		
+		@Override
+		public double multiplier(CompiledNGram row, int i, CompiledNGram column, int j) {
+			if (!row.is(i, CompiledNGram.NAMED) && !column.is(j, CompiledNGram.NAMED))
+				return 1; // HACK
+			else if (!row.is(i, CompiledNGram.NAMED) || !column.is(j, CompiledNGram.NAMED))
+				return 0;
+			
+			int index1 = row.nameIndices[i];
+			int index2 = column.nameIndices[j];
+			double synMultiplier;
+			
+			// NORMAL CHECK BEGIN
+			if (index1 != CompiledNGram.NONE && index2 != CompiledNGram.NONE) {
+				// a single probe for both directions, zero if not found
+				synMultiplier = synonymLookup.get(index1, index2);
+				if (applyThreshold && synMultiplier < threshold) synMultiplier = 0.0;
+			} else {
+				// this happens when generating e.g. bigrams with types/supertypes retrieved from the URL -> hence not found in unigrams FIXME
+				// the nlp (tokeniser) might be shared among worker comparators, so do not use it concurrently
+				synchronized (nlp) {
+					synMultiplier = nlp.compareMultiword(row.nameStrings[i], column.nameStrings[j], threshold);
+				}
+			}
+			// NORMAL CHECK END
+			return synMultiplier;
+		}
+	}
+	
+	// NEW: attributes adhoc now, TODO improve
+	static final class AttributeStage implements ComparisonStage {
+		// whether only a full attribute match counts
+		private final boolean binary;
+		
+		AttributeStage(boolean binary) { this.binary = binary; }
+		
+		@Override
+		public double multiplier(CompiledNGram row, int i, CompiledNGram column, int j) {
+			if (row.is(i, CompiledNGram.ATTRIBUTED) && column.is(j, CompiledNGram.ATTRIBUTED)	// both ANs							
+					&& row.types[i] == column.types[j] // same types also assume when there are attributes,type checking should be always on TODO improve
+					) 
+			{
+				double atrCompare = CompiledNGram.compareAttributes(row, i, column, j);
+				return binary ? (atrCompare==1.0?1.0:0.0) : atrCompare;
+			}
+			return 1.0;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.tue.set.samos.common.Parameters;
+import nl.tue.set.samos.common.enums.SYNONYM;
+import nl.tue.set.samos.common.enums.SYNONYM_TRESHOLD;
+import nl.tue.set.samos.nlp.NLP;
+import nl.tue.set.samos.nlp.SynonymTable;
+
+/**
+ * This class is the shared part of feature comparison: the parameters, the NLP with WordNet loaded, the NLP caches for a feature folder (dictionary 
+ * and synonym lookup) and the comparison pipeline for the parameters. It is not modified after loading, so any number of FeatureComparator workers 
+ * (e.g. one per thread) can use it at the same time; a worker only holds its own temporary matrices and tree edit distance state. 
+*/
+public class ComparisonContext {
+	
+	static final Logger logger = LoggerFactory.getLogger(ComparisonContext.class);
+	
+	public final Parameters parameters;
+	public final NLP nlp;
+	
+	public final LinkedHashSet<String> dictionary;
+	public final HashMap<String, Integer> reverseDictionary;
+	public final HashMap<Integer, String[]> tokenLookup;
+	public final SynonymTable synonymLookup;
+	
+	// the comparison stages specialized for the parameters
+	final ComparisonPipeline pipeline;
+	
+	// cache files the dictionary and synonym lookup are loaded from, so that derived contexts do not load them again
+	private final String dictionaryFile, synonymFile;
+	
+	// loads WordNet, and the NLP caches for the parameters from the given feature folder 
+	public static ComparisonContext load(Parameters parameters, String sourceFileFolder) throws IOException {
+		NLP nlp = new NLP();
+		nlp.loadWordNet();
+		return new ComparisonContext(parameters, nlp, sourceFileFolder, null);
+	}
+	
+	// context with (possibly) other parameters, sharing the NLP and the caches of this one: only loads the caches which differ for these 
+	// parameters (e.g. another synonym threshold)
+	public ComparisonContext derive(Parameters parameters, String sourceFileFolder) throws IOException {
+		return new ComparisonContext(parameters, nlp, sourceFileFolder, this);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private ComparisonContext(Parameters parameters, NLP nlp, String sourceFileFolder, ComparisonContext shared) throws IOException {
+		this.parameters = parameters;
+		this.nlp = nlp;
+		this.tokenLookup = shared == null ? new HashMap<Integer, String[]>() : shared.tokenLookup;
+		
+		LinkedHashSet<String> dictionary = new LinkedHashSet<String>();
+		HashMap<String, Integer> reverseDictionary = new HashMap<String, Integer>();
+		String dictionaryFile = null;
+		SynonymTable synonymLookup = new SynonymTable();
+		String synonymFile = null;
+		boolean loadSynonyms = true;
+		
+		File dictFile = new File(sourceFileFolder + "/dictionary.ser");  
+		if (shared != null && dictFile.getPath().equals(shared.dictionaryFile)) {
+			logger.info("dictionary file already loaded");
+			dictionary = shared.dictionary;
+			reverseDictionary = shared.reverseDictionary;
+			dictionaryFile = shared.dictionaryFile;
+		}
+		else if (dictFile.exists())
+		{						  
+			dictionaryFile = dictFile.getPath();
+			logger.info("found dictionary file!!");
+			FileInputStream fis = new FileInputStream(dictFile);  
+			ObjectInputStream s = new ObjectInputStream(fis);    
+			try {
+				dictionary = (LinkedHashSet<String>)s.readObject();
+				// adding dummy name 
+				dictionary.add("#ASD#QWE#ZXC#");
+				int i=0;
+				for (String word : dictionary) {
+					reverseDictionary.put(word, i);
+					i++;
+				}
+				
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
+				loadSynonyms = false;
+			} 								
+			s.close();
+		}
+		
+		if (parameters._SYNONYM != SYNONYM.NO_SYNONYM && loadSynonyms) {
+			String suffix = parameters._SYNONYM_TRESHOLD!=SYNONYM_TRESHOLD.NO_WORDNET?"_WNET":"_NOWNET";
+			File synFile = new File(sourceFileFolder + "/syn" + suffix + ".bin");  
+			synonymFile = synFile.getPath();
+			if (shared != null && synonymFile.equals(shared.synonymFile)) {
+				synonymLookup = shared.synonymLookup;
+				logger.info("synonym file already loaded: " + synonymLookup.size());
+			}
+			else {
+				synonymLookup = SynonymTable.read(synFile);
+				// a single array lookup per pair if the dictionary is small enough
+				synonymLookup.compact(dictionary.size());
+				logger.info("synonym file loaded: " + synonymLookup.size());
+			}
+		}
+		
+		this.dictionary = dictionary;
+		this.reverseDictionary = reverseDictionary;
+		this.dictionaryFile = dictionaryFile;
+		this.synonymLookup = synonymLookup;
+		this.synonymFile = synonymFile;
+		
+		this.pipeline = ComparatorFactory.createPipeline(this);
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import nl.tue.set.samos.common.enums.CTX_MATCH;
+
+/**
+ * The comparison pipeline of a ComparisonContext for its parameters, assembled by ComparatorFactory: the stages computing the multipliers per cell, 
+ * and the settings of the per n-gram steps, resolved once instead of checking the parameters in every comparison. 
+ */
+public class ComparisonPipeline {
+	final ComparisonStage typeStage;
+	final ComparisonStage typeValueStage;
+	final ComparisonStage nameStage;
+	final ComparisonStage attributeStage;
+	
+	// whether types are compared at all (i.e. not IGNORE_TYPE)
+	final boolean typesCompared;
+	// fixed n-gram comparison (FIX) or max similar subsequence (MSS)
+	final boolean fixed;
+	// whether edges can be at the corners of the similarity matrix (NTREE)
+	final boolean edgesAtCorners;
+	final CTX_MATCH context;
+	
+	ComparisonPipeline(ComparisonStage typeStage, ComparisonStage typeValueStage, ComparisonStage nameStage, ComparisonStage attributeStage, 
+			boolean typesCompared, boolean fixed, boolean edgesAtCorners, CTX_MATCH context) {
+		this.typeStage = typeStage;
+		this.typeValueStage = typeValueStage;
+		this.nameStage = nameStage;
+		this.attributeStage = attributeStage;
+		this.typesCompared = typesCompared;
+		this.fixed = fixed;
+		this.edgesAtCorners = edgesAtCorners;
+		this.context = context;
+	}
+}
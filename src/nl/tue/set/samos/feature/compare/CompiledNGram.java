@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.tue.set.samos.feature.AttributedNode;
+import nl.tue.set.samos.feature.NGram;
+import nl.tue.set.samos.feature.NamedFeature;
+import nl.tue.set.samos.feature.SimpleFeature;
+import nl.tue.set.samos.feature.SimpleType;
+import nl.tue.set.samos.feature.TypedFeature;
+import nl.tue.set.samos.feature.TypedValuedName;
+
+/**
+ * This class is the compiled form of an n-gram for FeatureComparator.compareNGram: per position, the kind of the simple feature as flags, and its strings 
+ * as integer ids (type, case-insensitive eType, name and the dictionary index of the name), plus the encoded attributes (see AttributeVector). 
+ * The strings are interned in global symbol tables, so the compiled forms of different n-grams can be compared by ids only. Only the dictionary indices 
+ * depend on the comparator, hence the compiled form keeps the dictionary it was compiled with. 
+*/
+public class CompiledNGram {
+	
+	// kinds of simple features (type valued: typed valued names and attributed nodes with an eType, see FeatureComparator.isTypeValuedFeature)
+	public static final int TYPED = 1, NAMED = 2, TYPE_VALUED = 4, ATTRIBUTED = 8, SIMPLE_TYPE = 16;
+	
+	// id of a missing string (e.g. no eType attribute, or a name not in the dictionary)
+	public static final int NONE = -1;
+	
+	private static final ConcurrentHashMap<String, Integer> symbols = new ConcurrentHashMap<String, Integer>();
+	private static final AtomicInteger symbolCount = new AtomicInteger();
+	
+	static int symbol(String s){
+		if (s == null) return NONE;
+		return symbols.computeIfAbsent(s, k -> symbolCount.getAndIncrement());
+	}
+	
+	// equal keys for any two strings for which equalsIgnoreCase holds
+	static String caseInsensitiveKey(String s){
+		char[] chars = s.toCharArray();
+		for (int i=0; i<chars.length; i++)
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		return new String(chars);
+	}
+	
+	final HashMap<String, Integer> dictionary;
+	
+	public final int n;
+	final int[] kinds;
+	final int[] types;
+	final int[] eTypes;
+	final int[] names;
+	final int[] nameIndices;
+	final String[] nameStrings;
+	
+	// whether any position is a typed valued name, whose type values cannot be compared
+	final boolean hasTypeValuedName;
+	
+	// hash of the length and the type sequence (NONE for untyped positions): n-grams with different fingerprints have different type sequences
+	final long typeFingerprint;
+	
+	// encoded attributes other than name, type and eType per attributed position
+	final AttributeVector[] attributes;
+	
+	private CompiledNGram(NGram ngram, HashMap<String, Integer> dictionary){
+		this.dictionary = dictionary;
+		n = ngram.n;
+		kinds = new int[n];
+		types = new int[n];
+		eTypes = new int[n];
+		names = new int[n];
+		nameIndices = new int[n];
+		nameStrings = new String[n];
+		attributes = new AttributeVector[n];
+		
+		boolean typeValuedName = false;
+		for (int i=0; i<n; i++)
+		{
+			SimpleFeature f = ngram.get(i);
+			types[i] = eTypes[i] = names[i] = nameIndices[i] = NONE;
+			
+			if (f instanceof TypedFeature) {
+				kinds[i] |= TYPED;
+				types[i] = symbol(((TypedFeature) f).getType());
+			}
+			if (f instanceof NamedFeature) {
+				kinds[i] |= NAMED;
+				nameStrings[i] = ((NamedFeature) f).getName();
+				names[i] = symbol(nameStrings[i]);
+				Integer index = dictionary.get(nameStrings[i]);
+				if (index != null) nameIndices[i] = index;
+			}
+			if (f instanceof TypedValuedName) {
+				kinds[i] |= TYPE_VALUED;
+				typeValuedName = true;
+			}
+			if (f instanceof SimpleType) 
+				kinds[i] |= SIMPLE_TYPE;
+			if (f instanceof AttributedNode) {
+				kinds[i] |= ATTRIBUTED;
+				compileAttributes(i, (AttributedNode) f);
+			}
+		}
+		hasTypeValuedName = typeValuedName;
+		
+		long fingerprint = n;
+		for (int i=0; i<n; i++)
+			fingerprint = fingerprint * 1000003 + types[i];
+		typeFingerprint = fingerprint;
+	}
+	
+	private void compileAttributes(int i, AttributedNode node){
+		if (node.hasAttribute("eType")) {
+			kinds[i] |= TYPE_VALUED;
+			eTypes[i] = symbol(caseInsensitiveKey(node.getAttribute("eType")));
+		}
+		attributes[i] = new AttributeVector(node);
+	}
+	
+	// the compiled form of the n-gram for the given dictionary, cached in the n-gram 
+	public static CompiledNGram of(NGram ngram, HashMap<String, Integer> dictionary){
+		Object compiled = ngram.compiledForm;
+		if (compiled instanceof CompiledNGram && ((CompiledNGram) compiled).dictionary == dictionary)
+			return (CompiledNGram) compiled;
+		
+		CompiledNGram result = new CompiledNGram(ngram, dictionary);
+		ngram.compiledForm = result;
+		return result;
+	}
+	
+	public boolean is(int i, int kind){
+		return (kinds[i] & kind) != 0;
+	}
+	
+	// same as FeatureComparator.compareAttributes for two attributed nodes of the same type
+	public static double compareAttributes(CompiledNGram ngram1, int i, CompiledNGram ngram2, int j){
+		return AttributeVector.compare(ngram1.attributes[i], ngram2.attributes[j]);
+	}
+}
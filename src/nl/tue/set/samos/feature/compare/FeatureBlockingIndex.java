@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.feature.compare;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.tue.set.samos.common.Util;
+import nl.tue.set.samos.common.enums.CTX_MATCH;
+import nl.tue.set.samos.common.enums.NGRAM_CMP;
+import nl.tue.set.samos.common.enums.SYNONYM;
+import nl.tue.set.samos.common.enums.SYNONYM_TRESHOLD;
+import nl.tue.set.samos.common.enums.TYPE_MATCH;
+import nl.tue.set.samos.feature.AttributedNode;
+import nl.tue.set.samos.feature.Feature;
+import nl.tue.set.samos.feature.NGram;
+import nl.tue.set.samos.feature.NamedFeature;
+import nl.tue.set.samos.feature.SimpleFeature;
+import nl.tue.set.samos.feature.SimpleType;
+import nl.tue.set.samos.feature.TypedFeature;
+import nl.tue.set.samos.feature.TypedValuedName;
+
+/**
+ * This class is a blocking index over the vocabulary (i.e. the column features) of the vsm, for skipping n-gram comparisons which are provably zero in 
+ * FeatureComparator.compareNGram. The column n-grams are indexed per arity, position, type signature (for strict type matching) and name, where a name
+ * matches itself and its synonym neighbours above the threshold in the synonym lookup. For a row feature, only the columns which can have a non-zero 
+ * cell in the similarity matrix are returned: 
+ * 
+ * - on the diagonal for fixed comparison, anywhere for maximum similar subsequence
+ * - on all the diagonal cells for strict context matching, on any cell otherwise 
+ * - edge vs edge cells are not considered, since they are zeroed anyway unless a neighbouring (non-edge) cell is non-zero
+ * 
+ * Features which do not fit these assumptions (not n-grams, unknown names, edges at the start or next to each other, etc.) are always compared. 
+ * The result is exact: the skipped comparisons would all return 0. Not meant for n-trees.
+*/
+public class FeatureBlockingIndex {
+
+	private final FeatureComparator comparator;
+	private final Feature[] columnFeatures;
+	
+	private final boolean strictType, noSynonym, fixedPositions, allDiagonalCells;
+	
+	// synonym neighbours per dictionary index, where the similarity is non-zero after thresholding
+	private final HashMap<Integer, int[]> synonymNeighbours = new HashMap<Integer, int[]>();
+	
+	// posting lists per (arity, position, edge flag, type signature)
+	private final HashMap<String, Slot> slots = new HashMap<String, Slot>();
+	
+	// columns to always compare: per arity, and for any row
+	private final HashMap<Integer, IntList> wildcardsPerArity = new HashMap<Integer, IntList>();
+	private final IntList wildcards = new IntList();
+	
+	public FeatureBlockingIndex(FeatureComparator comparator, Feature[] columnFeatures) {
+		this.comparator = comparator;
+		this.columnFeatures = columnFeatures;
+		
+		strictType = comparator.parameters._TYPE_MATCH == TYPE_MATCH.STRICT_TYPE;
+		noSynonym = comparator.parameters._SYNONYM == SYNONYM.NO_SYNONYM;
+		fixedPositions = comparator.parameters._NGRAM_CMP == NGRAM_CMP.FIX;
+		// strict context needs all n items to match, which for an n x n matrix means the whole diagonal (also for the subsequence) 
+		allDiagonalCells = comparator.parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT;
+		
+		if (!noSynonym)
+			buildSynonymNeighbours();
+		
+		for (int column=0; column<columnFeatures.length; column++)
+		{
+			Feature f = columnFeatures[column];
+			if (!(f instanceof NGram))
+				wildcards.add(column);
+			else if (!isIndexable((NGram) f))
+				wildcardsPerArity.computeIfAbsent(((NGram) f).n, k -> new IntList()).add(column);
+			else {
+				NGram ngram = (NGram) f;
+				for (int j=0; j<ngram.n; j++)
+					slots.computeIfAbsent(slotKey(ngram.n, j, ngram.get(j)), k -> new Slot()).add(column, nameKey(ngram.get(j)));
+			}
+		}
+	}
+	
+	private void buildSynonymNeighbours(){
+		HashMap<Integer, IntList> neighbours = new HashMap<Integer, IntList>();
+		boolean applyTreshold = comparator.parameters._SYNONYM_TRESHOLD != SYNONYM_TRESHOLD.NO_WORDNET;
+		double treshold = Util.getSynonymTreshold(comparator.parameters._SYNONYM_TRESHOLD);
+		
+		comparator.synonymLookup.forEach((index1, index2, value) -> {
+			// same test as in compareNGram: anything not thresholded to zero 
+			if (value == 0 || (applyTreshold && value < treshold)) return;
+			
+			neighbours.computeIfAbsent(index1, k -> new IntList()).add(index2);
+			if (index1 != index2)
+				neighbours.computeIfAbsent(index2, k -> new IntList()).add(index1);
+		});
+		for (Map.Entry<Integer, IntList> entry : neighbours.entrySet())
+			synonymNeighbours.put(entry.getKey(), entry.getValue().toArray());
+	}
+	
+	// edges at the start (no diagonal neighbour), consecutive edges and typed valued names are not handled by the index  
+	private boolean isIndexable(NGram ngram){
+		for (int i=0; i<ngram.n; i++)
+		{
+			SimpleFeature f = ngram.get(i);
+			if (f instanceof TypedValuedName) return false;
+			if (f instanceof TypedFeature && ((TypedFeature) f).getType() == null) return false;
+			if (f instanceof NamedFeature && ((NamedFeature) f).getName() == null) return false;
+			if (f instanceof SimpleType && (i == 0 || ngram.get(i-1) instanceof SimpleType)) return false;
+		}
+		return true;
+	}
+	
+	private String slotKey(int n, int position, SimpleFeature f){
+		return n + ":" + position + ":" + (f instanceof SimpleType) + ":" + typeSignature(f);
+	}
+	
+	private String slotKey(int n, int position, boolean edge, String typeSignature){
+		return n + ":" + position + ":" + edge + ":" + typeSignature;
+	}
+	
+	// types only zero the comparison for strict type matching: type and eType (case-insensitive) have to be equal 
+	private String typeSignature(SimpleFeature f){
+		if (!strictType) return "";
+		String type = (f instanceof TypedFeature)?"T" + ((TypedFeature) f).getType():"U";
+		if (f instanceof AttributedNode && ((AttributedNode) f).hasAttribute("eType"))
+			return type + "|E" + CompiledNGram.caseInsensitiveKey(((AttributedNode) f).getAttribute("eType"));
+		return type + "|N";
+	}
+	
+	// dictionary index (or the name itself without synonyms), null for unnamed features, UNKNOWN_NAME for names not in the dictionary
+	private Object nameKey(SimpleFeature f){
+		if (!(f instanceof NamedFeature)) return null;
+		String name = ((NamedFeature) f).getName();
+		if (noSynonym) return name;
+		Integer index = comparator.reverseDictionary.get(name);
+		return index == null?UNKNOWN_NAME:index;
+	}
+	
+	private static final Object UNKNOWN_NAME = new Object();
+	
+	// a fresh lookup with its own buffers, to be used by a single thread
+	public Lookup newLookup(){
+		return new Lookup();
+	}
+	
+	/**
+	 * Candidate columns for a row feature. 
+	 */
+	public class Lookup {
+		
+		private final int[] hitCounts = new int[columnFeatures.length];
+		private final int[] positionStamps = new int[columnFeatures.length];
+		private int stamp = 0;
+		private final IntList touched = new IntList();
+		
+		public final IntList candidates = new IntList();
+		
+		// fills the candidates with the column indices (in increasing order) that may compare above zero with the row feature
+		public void find(Feature rowFeature){
+			candidates.clear();
+			
+			if (!(rowFeature instanceof NGram) || !isIndexable((NGram) rowFeature)) {
+				for (int column=0; column<columnFeatures.length; column++)
+					candidates.add(column);
+				return;
+			}
+			
+			NGram ngram = (NGram) rowFeature;
+			int requiredHits = 0;
+			for (int i=0; i<ngram.n; i++)
+			{
+				SimpleFeature f = ngram.get(i);
+				boolean edge = f instanceof SimpleType;
+				
+				// edges do not decide on their own (see above)
+				if (edge && allDiagonalCells) continue;
+				requiredHits++;
+				
+				nextPosition();
+				String typeSignature = typeSignature(f);
+				Object nameKey = nameKey(f);
+				int from = (fixedPositions || allDiagonalCells)?i:0;
+				int to = (fixedPositions || allDiagonalCells)?i:ngram.n-1;
+				for (int j=from; j<=to; j++)
+				{
+					hit(slots.get(slotKey(ngram.n, j, false, typeSignature)), nameKey);
+					if (!edge)
+						hit(slots.get(slotKey(ngram.n, j, true, typeSignature)), nameKey);
+				}
+			}
+			
+			// nothing to decide on, compare with everything
+			if (requiredHits == 0) {
+				for (int column=0; column<columnFeatures.length; column++)
+					candidates.add(column);
+				resetHits();
+				return;
+			}
+			
+			for (int k=0; k<touched.size; k++)
+			{
+				int column = touched.values[k];
+				if (allDiagonalCells?hitCounts[column] == requiredHits:hitCounts[column] > 0)
+					candidates.add(column);
+			}
+			resetHits();
+			
+			candidates.addAll(wildcards);
+			IntList arityWildcards = wildcardsPerArity.get(ngram.n);
+			if (arityWildcards != null)
+				candidates.addAll(arityWildcards);
+			candidates.sort();
+		}
+		
+		private void nextPosition(){
+			if (stamp == Integer.MAX_VALUE) {
+				Arrays.fill(positionStamps, 0);
+				stamp = 0;
+			}
+			stamp++;
+		}
+		
+		private void hit(Slot slot, Object nameKey){
+			if (slot == null) return;
+			
+			if (nameKey == null)
+				hit(slot.unnamed);
+			else if (nameKey == UNKNOWN_NAME)
+				hit(slot.named);
+			else {
+				hit(slot.unknownNames);
+				if (noSynonym)
+					hit(slot.byName.get(nameKey));
+				else {
+					// a name always matches itself 
+					hit(slot.byName.get(nameKey));
+					int[] neighbours = synonymNeighbours.get(nameKey);
+					if (neighbours != null)
+						for (int neighbour : neighbours)
+							if (neighbour != (Integer) nameKey)
+								hit(slot.byName.get(neighbour));
+				}
+			}
+		}
+		
+		private void hit(IntList columns){
+			if (columns == null) return;
+			for (int k=0; k<columns.size; k++)
+			{
+				int column = columns.values[k];
+				// count each column once per row position
+				if (positionStamps[column] == stamp) continue;
+				positionStamps[column] = stamp;
+				if (hitCounts[column]++ == 0)
+					touched.add(column);
+			}
+		}
+		
+		private void resetHits(){
+			for (int k=0; k<touched.size; k++)
+				hitCounts[touched.values[k]] = 0;
+			touched.clear();
+		}
+	}
+	
+	// posting lists for one (arity, position, edge flag, type signature)
+	private static class Slot {
+		final HashMap<Object, IntList> byName = new HashMap<Object, IntList>();
+		final IntList unnamed = new IntList();
+		final IntList named = new IntList();
+		final IntList unknownNames = new IntList();
+		
+		void add(int column, Object nameKey){
+			if (nameKey == null) 
+				unnamed.add(column);
+			else {
+				named.add(column);
+				if (nameKey == UNKNOWN_NAME)
+					unknownNames.add(column);
+				else
+					byName.computeIfAbsent(nameKey, k -> new IntList()).add(column);
+			}
+		}
+	}
+	
+	// growable primitive int list
+	public static class IntList {
+		public int[] values = new int[8];
+		public int size = 0;
+		
+		public void add(int value){
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+		
+		public void addAll(IntList other){
+			for (int k=0; k<other.size; k++)
+				add(other.values[k]);
+		}
+		
+		public void clear(){ size = 0;}
+		
+		public void sort(){ Arrays.sort(values, 0, size);}
+		
+		public int[] toArray(){ return Arrays.copyOf(values, size);}
+	}
+}
@@ -26,10 +26,6 @@
 
 package nl.tue.set.samos.feature.compare;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -38,20 +34,18 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import distance.APTED;
-import nl.tue.set.samos.common.Pair;
 import nl.tue.set.samos.common.Parameters;
 import nl.tue.set.samos.common.Util;
 import nl.tue.set.samos.common.enums.CTX_MATCH;
-import nl.tue.set.samos.common.enums.NGRAM_CMP;
 import nl.tue.set.samos.common.enums.STRUCTURE;
 import nl.tue.set.samos.common.enums.SYNONYM;
-import nl.tue.set.samos.common.enums.SYNONYM_TRESHOLD;
-import nl.tue.set.samos.common.enums.TYPE_MATCH;
+import nl.tue.set.samos.common.enums.TREE_CMP;
 import nl.tue.set.samos.feature.AttributedNode;
 import nl.tue.set.samos.feature.Feature;
 import nl.tue.set.samos.feature.NGram;
@@ -59,11 +53,11 @@ import nl.tue.set.samos.feature.NTree;
 import nl.tue.set.samos.feature.NTreeApted;
 import nl.tue.set.samos.feature.NamedFeature;
 import nl.tue.set.samos.feature.SimpleFeature;
-import nl.tue.set.samos.feature.SimpleType;
 import nl.tue.set.samos.feature.TypedFeature;
 import nl.tue.set.samos.feature.TypedName;
 import nl.tue.set.samos.feature.TypedValuedName;
 import nl.tue.set.samos.nlp.NLP;
+import nl.tue.set.samos.nlp.SynonymTable;
 import node.Node;
 /**
  * This class contains several techniques for comparing features. It uses the NLP caching and similarity scores for model element names, while providing
@@ -71,35 +65,69 @@ import node.Node;
  * 
  * - structural comparison for n-grams (maximum similar subsequence) and n-trees (APTED ordered tree edit distance and Hungarian distance)
  * - compound comparison schemes for unigrams: type comparison, name comparison, attribute comparison
+ * 
+ * A comparator is a worker on a loaded ComparisonContext and is not thread-safe itself; use a comparator per thread on the same context. 
 */
 public class FeatureComparator {
 	
 	final Logger logger = LoggerFactory.getLogger(FeatureComparator.class);
 	
-	// which comparison technique to use for n-trees?
-	public final int TREE_COMPARE = 
-//			0; // ordered tree edit distance
-			1; // hungarian (assignment problem for the leaves)
+	// which comparison technique to use for n-trees: ordered tree edit distance, hungarian (assignment problem for the leaves) or the cascade of the two 
+	// (see compareNTreeCascade), which reports only the pairs with a hungarian similarity of at least CASCADE_THRESHOLD (the default for a distance of 0.30)
+	public TREE_CMP TREE_COMPARE = TREE_CMP.HUNGARIAN;
+	public double CASCADE_THRESHOLD = 0.7;
+	
+	// number of n-tree pairs resolved by each cascade step, shared by the workers of a comparator
+	public static final int CASCADE_LEAF_COUNT = 0, CASCADE_PARENT = 1, CASCADE_HUNGARIAN = 2, CASCADE_APTED = 3;
+	AtomicLongArray cascadeCounts = new AtomicLongArray(4);
+	
+	// margin for the bounds against float rounding in the distance computations 
+	private static final double CASCADE_TOLERANCE = 1e-6;
+	
+	// the shared, loaded part: parameters, NLP, caches and the comparison pipeline 
+	public final ComparisonContext context;
 	
-	Parameters parameters;
+	final Parameters parameters;
+	final ComparisonPipeline pipeline;
+	public final NLP nlp; 
 	
-	public final NLP nlp = new NLP(); 
+	public final LinkedHashSet<String> dictionary;
+	public final HashMap<String, Integer> reverseDictionary;
+	public final HashMap<Integer, String[]> tokenLookup;
+	public final SynonymTable synonymLookup;
 	
-	public LinkedHashSet<String> dictionary = new LinkedHashSet<String>();
-	public HashMap<String, Integer> reverseDictionary = new HashMap<String, Integer>();
-	public HashMap<Integer, String[]> tokenLookup = new HashMap<Integer, String[]>();
-	public HashMap<Pair<Integer, Integer>, Double> synonymLookup = new HashMap<Pair<Integer, Integer>, Double>();
+	// tree edit distance on label-encoded trees, with the rename costs computed once per tree pair in the cost model
+	FeatureCostModel costModel;
+	APTED<FeatureCostModel, Integer> apted;
 	
-	APTED<FeatureCostModel, Feature> apted;
+	// assignment problem for the leaves in the hungarian distance, with its own reused workspace
+	final AssignmentSolver assignmentSolver = new AssignmentSolver();
 	
-	public FeatureComparator(Parameters parameters) {
-		this.parameters = parameters;
+	// worker comparator for a loaded context, e.g. one per thread: only has its own temporary data structures and tree edit distance state
+	public FeatureComparator(ComparisonContext context) {
+		this.context = context;
+		this.parameters = context.parameters;
+		this.pipeline = context.pipeline;
+		this.nlp = context.nlp;
+		this.dictionary = context.dictionary;
+		this.reverseDictionary = context.reverseDictionary;
+		this.tokenLookup = context.tokenLookup;
+		this.synonymLookup = context.synonymLookup;
 		
 		fillTempDataStructures();
 		
-		apted = new APTED<>(new FeatureCostModel(this));
-		
-		nlp.loadWordNet();
+		costModel = new FeatureCostModel(this);
+		apted = new APTED<>(costModel);
+	}
+	
+	// worker comparator sharing the context (and trace settings) of the given comparator
+	public FeatureComparator(FeatureComparator shared) {
+		this(shared.context);
+		this.TRACE_SIMILARS = shared.TRACE_SIMILARS;
+		this.TRACE_SIMILARS_NTREE = shared.TRACE_SIMILARS_NTREE;
+		this.TREE_COMPARE = shared.TREE_COMPARE;
+		this.CASCADE_THRESHOLD = shared.CASCADE_THRESHOLD;
+		this.cascadeCounts = shared.cascadeCounts;
 	}
 	
 	public static void arrayCopy(double[][] aSource, double[][] aDestination) {
@@ -111,87 +139,29 @@ public class FeatureComparator {
 	public boolean TRACE_SIMILARS = false;
 	public boolean TRACE_SIMILARS_NTREE = false;
 	
-	// workaround for filling temporary matrices and reusing them, rather than creating them from scratch each time. 
+	// temporary matrices, reused for all the comparisons rather than created from scratch each time. only the n x n top-left cells are used for n-grams of size n, 
+	// so they do not need to be cleared. they are grown on demand (e.g. for large n-trees)  
 	private void fillTempDataStructures(){
-		// TODO is it ok to do this, as this is the max size of the matrix?
-		//int n = parameters._STRUCTURE.ordinal()+1; // N if no edges included
-		
-		// ORIGINAL
-		//int n = 2 * parameters._STRUCTURE.ordinal() +1; // N + (N-1) with edges
-		
-		// workaround for NTrees, TODO proper
-		int n = 40;
-				
-		emptyMatrix  = new double[n][n];
-		for (double[] row: emptyMatrix)
-			Arrays.fill(row, 0.0);
+		ensureTempCapacity(2 * STRUCTURE.TRIGRAM.ordinal() + 1); // N + (N-1) with edges
+	}
+	
+	private void ensureTempCapacity(int n){
+		if (sims != null && sims.length >= n)
+			return;
 		
 		typeMultipliers = new double[n][n];
-		typeExactMatches = new boolean[n][n];
 		typeValueMultipliers = new double[n][n];
-		typeValueExactMatches = new boolean[n][n];
 		synMultipliers = new double[n][n];
-		synPairs  = new Object[n][n];
-		synPairRevs = new Object[n][n];
 //		synDoubles = new double[n][n];
 		attributeMultipliers = new double[n][n];
 		sims = new double[n][n];
+		lcsScores = new double[n+1][n+1];
+		lcsLengths = new int[n+1][n+1];
 	}
 	
-	// load NLP cache for semantic similarity scores 
-	@SuppressWarnings("unchecked")
-	public void loadUpCache(String sourceFileFolder) throws IOException{
-//		dictionary = new LinkedHashSet<String>();
-		File dictFile = new File(sourceFileFolder + "/dictionary.ser");  
-		if (dictFile.exists())
-		{						  
-			logger.info("found dictionary file!!");
-			FileInputStream fis = new FileInputStream(dictFile);  
-			ObjectInputStream s = new ObjectInputStream(fis);    
-			try {
-				dictionary = (LinkedHashSet<String>)s.readObject();
-				// adding dummy name 
-				dictionary.add("#ASD#QWE#ZXC#");
-//				int size = dictionary.size();
-//				for (int i=0; i<size; i++)
-//					reverseDictionary.put(dictionary.get(i), i);
-				int i=0;
-				for (String word : dictionary) {
-					reverseDictionary.put(word, i);
-					i++;
-				}
-				
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
-				s.close();
-				return;
-			} 								
-			s.close();
-		}
-		
-		synonymLookup = new HashMap<Pair<Integer, Integer>, Double>();
-		
-		if (parameters._SYNONYM != SYNONYM.NO_SYNONYM) {										
-			String suffix = parameters._SYNONYM_TRESHOLD!=SYNONYM_TRESHOLD.NO_WORDNET?"_WNET":"_NOWNET";
-			File synFile = new File(sourceFileFolder + "/syn" + suffix + ".ser");  
-			
-			FileInputStream fis = new FileInputStream(synFile);  
-			ObjectInputStream s = new ObjectInputStream(fis);    
-			try {
-				synonymLookup = (HashMap<Pair<Integer, Integer>, Double>)s.readObject();
-				logger.info("synonym file loaded: " + synonymLookup.size());
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
-				s.close();
-			} 								
-			s.close();
-		}		
-	}
-	
-	public final double REDUCED_TM_MULTIPLIER = 0.5;
+	public static final double REDUCED_TM_MULTIPLIER = 0.5;
 	
 	// main method to compare any two features, delegated to more specialized methods per feature type
-	@SuppressWarnings("unused")
 	public double compare(Feature f1, Feature f2){
 		
 		if (!f1.getClass().equals(f2.getClass())) // cannot compare different feature types 
@@ -200,10 +170,11 @@ public class FeatureComparator {
 			return compareNGram((NGram)f1, (NGram)f2);
 		if (f1 instanceof NTreeApted && f2 instanceof NTreeApted) {
 			
-			if (TREE_COMPARE == 0)
-				return compareNTreeApted((NTreeApted)f1, (NTreeApted)f2);
-			else
-				return compareNTreeHungarian((NTreeApted)f1, (NTreeApted)f2);
+			switch (TREE_COMPARE) {
+			case APTED: return compareNTreeApted((NTreeApted)f1, (NTreeApted)f2);
+			case CASCADE: return compareNTreeCascade((NTreeApted)f1, (NTreeApted)f2);
+			default: return compareNTreeHungarian((NTreeApted)f1, (NTreeApted)f2);
+			}
 		}
 		else {
 			System.err.println("Problematic case for feature comparison: " + f1.toString() + " vs " + f2.toString());
@@ -211,6 +182,21 @@ public class FeatureComparator {
 		}
 	}
 	
+	// whether compare(f1, f2) == compare(f2, f1) for any two features with this property: n-grams whose names are all found in the dictionary
+	// (i.e. no multiword fallback), as the synonym lookup is symmetric 
+	public boolean isSymmetricallyComparable(Feature f){
+		if (!(f instanceof NGram)) 
+			return false;
+		NGram ngram = (NGram) f;
+		for (int i=0; i<ngram.n; i++) {
+			if (ngram.get(i) instanceof TypedValuedName) 
+				return false;
+			if (parameters._SYNONYM != SYNONYM.NO_SYNONYM && isNamedFeature(ngram.get(i)) && !reverseDictionary.containsKey(getName(ngram.get(i)))) 
+				return false;
+		}
+		return true;
+	}
+	
 	// Note: Only talking about simple features here
 	public boolean isTypedFeature(SimpleFeature f){
 		return (f instanceof TypedFeature);
@@ -247,182 +233,53 @@ public class FeatureComparator {
 	
 	// temporary data structures
 	protected double typeMultipliers[][];
-	protected boolean typeExactMatches[][];
 	protected double typeValueMultipliers[][];
-	protected boolean typeValueExactMatches[][];
 	protected double synMultipliers[][];
-	protected Object[][] synPairs;
-	protected Object[][] synPairRevs;
 //	protected double synDoubles[][];
 	protected double sims[][];
 	protected double attributeMultipliers[][];
-	protected static double emptyMatrix[][];
+	protected double lcsScores[][];
+	protected int lcsLengths[][];
 	
-	// main method to compare n-grams. it applies a comparison scheme and treats different pieces of information separately: types, names and attributes
+	// main method to compare n-grams. it applies a comparison scheme and treats different pieces of information separately: types, names and attributes.
+	// it works on the compiled forms of the n-grams (see CompiledNGram), so the strings are only touched once per n-gram
 	public double compareNGram(NGram rowNgram, NGram columnNgram){
 		if (rowNgram.n != columnNgram.n) {
 			// TODO turn this on again, or implement a better check
 			//logger.error("non-matching ngrams!!");
 			return 0.0;
 		}
+		
+		final int n = rowNgram.n;
+		ensureTempCapacity(n);
+		
+		final CompiledNGram row = CompiledNGram.of(rowNgram, reverseDictionary);
+		final CompiledNGram column = CompiledNGram.of(columnNgram, reverseDictionary);
 
-		if (parameters._TYPE_MATCH == TYPE_MATCH.IGNORE_TYPE)
-		{
-			for (double[] row: typeMultipliers)
-				Arrays.fill(row, 1.0); 
-			for (double[] row: typeValueMultipliers)
-				Arrays.fill(row, 1.0); 
-		}
-		else  // reduced or exact match
-		{
-			arrayCopy(emptyMatrix, typeMultipliers);
-			arrayCopy(emptyMatrix, typeValueMultipliers);
-			
-			// CHECKING TYPES
-			for (int i=0; i<rowNgram.n; i++){
-				for (int j=0; j<columnNgram.n; j++){
-					if (!isTypedFeature(rowNgram.get(i)) && !isTypedFeature(columnNgram.get(j)))
-						typeExactMatches[i][j] = true; // HACK
-					else if (!isTypedFeature(rowNgram.get(i)) || !isTypedFeature(columnNgram.get(j)))
-						typeExactMatches[i][j] = false;
-					else {						
-						TypedFeature f1 = (TypedFeature) rowNgram.get(i);
-						TypedFeature f2 = (TypedFeature) columnNgram.get(j); 
-						typeExactMatches[i][j] = f1.getType().equals(f2.getType());
-												
-						// for the case with AttributedNodes & EAttributes, also check eType (i.e. don't generate a bigram for it) TODO proper 
-						if (rowNgram.get(i) instanceof AttributedNode && columnNgram.get(j) instanceof AttributedNode){
-							AttributedNode an1 = ((AttributedNode) rowNgram.get(i));
-							AttributedNode an2 = ((AttributedNode) columnNgram.get(j));
-							if (an1.hasAttribute("eType") && an2.hasAttribute("eType")) {
-								String t1 = ((AttributedNode) rowNgram.get(i)).getAttribute("eType");
-								String t2 = ((AttributedNode) columnNgram.get(j)).getAttribute("eType");
-								try{ typeExactMatches[i][j] = typeExactMatches[i][j] && t1.equalsIgnoreCase(t2);} catch(Exception ex){ // TODO do this properly with NLP
-									ex.printStackTrace();
-								}
-							}
-						}
-					}
-				}
-			}
-			
-			for (int i=0; i<rowNgram.n; i++)
-				for (int j=0; j<columnNgram.n; j++)
-					// if exact match then 1.0  anyways
-					// else if relaxed type setting a reduced value
-					// else plain zero
-					typeMultipliers[i][j] = typeExactMatches[i][j]?1.0:(parameters._TYPE_MATCH == TYPE_MATCH.RELAXED_TYPE?REDUCED_TM_MULTIPLIER:0.0); 
-			
-			
-			// COPY PASTA FROM ABOVE, for typeValues
-			for (int i=0; i<rowNgram.n; i++){
-				for (int j=0; j<columnNgram.n; j++){
-					if (!isTypeValuedFeature(rowNgram.get(i)) && !isTypeValuedFeature(columnNgram.get(j)))
-						typeValueExactMatches[i][j] = true; // HACK
-					else if (!isTypeValuedFeature(rowNgram.get(i)) || !isTypeValuedFeature(columnNgram.get(j)))
-						typeValueExactMatches[i][j] = false;
-					else {						
-						AttributedNode f1 = (AttributedNode) rowNgram.get(i);
-						AttributedNode f2 = (AttributedNode) columnNgram.get(j); 
-						typeValueExactMatches[i][j] = f1.getAttribute("eType").equalsIgnoreCase(f2.getAttribute("eType")); // TODO do proper NLP compare											
-					}
-				}
-			}
-			
-			for (int i=0; i<rowNgram.n; i++)
-				for (int j=0; j<columnNgram.n; j++)
-					// if exact match then 1.0  anyways
-					// else if relaxed type setting a reduced value
-					// else plain zero
-					typeValueMultipliers[i][j] = typeValueExactMatches[i][j]?1.0:(parameters._TYPE_MATCH == TYPE_MATCH.RELAXED_TYPE?REDUCED_TM_MULTIPLIER:0.0); 
-		}
-
-		// CHECKING SYNONYMS
-		arrayCopy(emptyMatrix, synMultipliers);		
-		if (parameters._SYNONYM == SYNONYM.NO_SYNONYM){
-			for (int i=0; i<rowNgram.n; i++)
-				for (int j=0; j<columnNgram.n; j++) {
-					if (!isNamedFeature(rowNgram.get(i)) && !isNamedFeature(columnNgram.get(j)))
-						synMultipliers[i][j] = 1; // HACK: as a rule of thumb, assume edges are not included when type checking is off -> domain analysis only
-					else if (!isNamedFeature(rowNgram.get(i)) || !isNamedFeature(columnNgram.get(j)))
-						synMultipliers[i][j] = 0;
-					else {
-						NamedFeature f1 = (NamedFeature) rowNgram.get(i);
-						NamedFeature f2 = (NamedFeature) columnNgram.get(j); 
-						synMultipliers[i][j] = f1.getName().equals(f2.getName())?1.0:0.0;
-					}
-				}
-		} else { 			
-			// TODO tricky situation e.g. when checking a contains b vs. b contains c
-			// case 1: comparing edges TN contains vs TN contains 
-			// case 2: comparing edges TN contains vs TN supertype
-			// type checking is clear, 1 for case 1, 0 for case 2
-			// synonym checking:
-			// if 0 -> negates the effect of type checking, so case 1 and case 2 become same ==> so should not give 0 by default
-			// if 1 -> bias for edges, as ALL the edges are going to be considered similar
-			// ASSUMPTION type checking should always be on when dealing with n-grams + edges included, partly solves the problem for edges of different tyles
-			// PROBLEM: if 1 blindly, then every [X contains Y] always similar to [Z contains W]. 
-			// see workaround below
-			for (int i=0; i<rowNgram.n; i++){
-				for (int j=0; j<columnNgram.n; j++){
-					if (!isNamedFeature(rowNgram.get(i)) && !isNamedFeature(columnNgram.get(j)))
-						synMultipliers[i][j] = 1; // HACK
-					else if (!isNamedFeature(rowNgram.get(i)) || !isNamedFeature(columnNgram.get(j)))
-						synMultipliers[i][j] = 0;
-					else {
-						NamedFeature f1 = (NamedFeature) rowNgram.get(i);
-						NamedFeature f2 = (NamedFeature) columnNgram.get(j); 
-						Integer index1 = reverseDictionary.get(f1.getName());
-						Integer index2 = reverseDictionary.get(f2.getName());
-						synPairs[i][j] = new Pair<Integer, Integer>(index1, index2);
-						synPairRevs[i][j] = new Pair<Integer, Integer>(index2, index1);
-						
-						// NORMAL CHECK BEGIN
-						try{
-						if (synonymLookup.containsKey(synPairs[i][j])) {
-							synMultipliers[i][j] = synonymLookup.get(synPairs[i][j]);
-							if (parameters._SYNONYM_TRESHOLD != SYNONYM_TRESHOLD.NO_WORDNET && 
-									synMultipliers[i][j] < Util.getSynonymTreshold(parameters._SYNONYM_TRESHOLD)) synMultipliers[i][j] = 0.0;
-						} else if (synonymLookup.containsKey(synPairRevs[i][j])) {
-							synMultipliers[i][j] = synonymLookup.get(synPairRevs[i][j]);
-							if (parameters._SYNONYM_TRESHOLD != SYNONYM_TRESHOLD.NO_WORDNET && 
-									synMultipliers[i][j] < Util.getSynonymTreshold(parameters._SYNONYM_TRESHOLD)) synMultipliers[i][j] = 0.0;
-						}
-						else 
-							synMultipliers[i][j] = 0.0;
-						} catch(Exception ex){
-							// this happens when generating e.g. bigrams with types/supertypes retrieved from the URL -> hence not found in unigrams FIXME
-							synMultipliers[i][j] = nlp.compareMultiword(f1.getName(), f2.getName(), Util.getSynonymTreshold(parameters._SYNONYM_TRESHOLD));
-						}
-						// NORMAL CHECK END						
-					}
-				}
-			}
+		// fail fast for CTX_STRICT: the result is non-zero only if all the n positions match in order (see NLP.fcsLength and NLP.lcsLength), 
+		// i.e. the whole diagonal of the similarity matrix is non-zero. The diagonal is checked first, with the cheapest discriminators first, and 
+		// with fixed n-gram comparison nothing else is needed. Skipped when comparing type values of typed valued names, as that fails anyways. 
+		if (pipeline.context == CTX_MATCH.CTX_STRICT 
+				&& !(pipeline.typesCompared && row.hasTypeValuedName && column.hasTypeValuedName)) {
+			if (!matchesDiagonal(row, column, n))
+				return 0.0;
+			if (pipeline.fixed)
+				return contextResult(this.nlp.fcs(sims, n), n, rowNgram, columnNgram);
 		}
 		
-		// NEW: attributes adhoc now, TODO improve
-		// TODO performance issues when there are no attributes!!!
-		for (double[] row : attributeMultipliers)
-			Arrays.fill(row, 1.0);
-		
-		for (int i=0; i<rowNgram.n; i++){
-			for (int j=0; j<columnNgram.n; j++){
-				if (rowNgram.get(i) instanceof AttributedNode && columnNgram.get(j) instanceof AttributedNode	// both ANs							
-						&& ((AttributedNode)rowNgram.get(i)).getType().equals(((AttributedNode)columnNgram.get(j)).getType()) // same types also assume when there are attributes,type checking should be always on TODO improve
-						) 
-				{
-					double atrCompare = compareAttributes((AttributedNode)rowNgram.get(i), (AttributedNode)columnNgram.get(j));
-					if (parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT && parameters._TYPE_MATCH == TYPE_MATCH.STRICT_TYPE) // HACK added the second expression to check type match as well, problematic when dealing with unigrams  (always CTX_STRICT)
-						attributeMultipliers[i][j] = atrCompare==1.0?1.0:0.0;
-					else
-						attributeMultipliers[i][j] = atrCompare;														
-				}
+		final ComparisonStage typeStage = pipeline.typeStage, typeValueStage = pipeline.typeValueStage, 
+				nameStage = pipeline.nameStage, attributeStage = pipeline.attributeStage;
+		for (int i=0; i<n; i++){
+			for (int j=0; j<n; j++){
+				typeMultipliers[i][j] = typeStage.multiplier(row, i, column, j);
+				typeValueMultipliers[i][j] = typeValueStage.multiplier(row, i, column, j);
+				synMultipliers[i][j] = nameStage.multiplier(row, i, column, j);
+				attributeMultipliers[i][j] = attributeStage.multiplier(row, i, column, j);
 			}
 		}
 
-		arrayCopy(emptyMatrix, sims);
-		for (int i=0; i<rowNgram.n; i++){
-			for (int j=0; j<columnNgram.n; j++){
+		for (int i=0; i<n; i++){
+			for (int j=0; j<n; j++){
 				sims[i][j] = typeMultipliers[i][j] * synMultipliers[i][j] * attributeMultipliers[i][j]
 						* typeValueMultipliers[i][j];
 			}
@@ -431,14 +288,15 @@ public class FeatureComparator {
 		// workaround: another pass on the synDoubles matrix just for the edges: TODO improve this
 		// assume edges cannot be at the corners of the matrix!
 		// another one, switch on off w.r.t structure
-		if (!(parameters._STRUCTURE == STRUCTURE.NTREE))
+		if (!pipeline.edgesAtCorners)
 		{
-			for (int i=0; i<rowNgram.n; i++){
-				for (int j=0; j<columnNgram.n; j++){
+			for (int i=0; i<n; i++){
+				for (int j=0; j<n; j++){
 					// if both simple types ~ edges, typically should occur at i=j
-					if (rowNgram.get(i) instanceof SimpleType && columnNgram.get(j) instanceof SimpleType){
+					if (row.is(i, CompiledNGram.SIMPLE_TYPE) && column.is(j, CompiledNGram.SIMPLE_TYPE)){
 						// go up and down on the diagonal, check if both are zero. If so, set it to zero as well.
-						if (sims[i-1][j-1] == 0 && sims[i+1][j+1] == 0) {
+						// (the cells after the last row or column count as zero)
+						if (sims[i-1][j-1] == 0 && (i+1 == n || j+1 == n || sims[i+1][j+1] == 0)) {
 							sims[i][j] = 0;
 						}
 						// if any of them non-zero, leave it as it is. 
@@ -449,14 +307,14 @@ public class FeatureComparator {
 		
 		// edges can also be at the corners of the matrix!!
 		else {
-			for (int i=0; i<rowNgram.n; i++){
-				for (int j=0; j<columnNgram.n; j++){
+			for (int i=0; i<n; i++){
+				for (int j=0; j<n; j++){
 					// if both simple types ~ edges, typically should occur at i=j
-					if (rowNgram.get(i) instanceof SimpleType && columnNgram.get(j) instanceof SimpleType){
+					if (row.is(i, CompiledNGram.SIMPLE_TYPE) && column.is(j, CompiledNGram.SIMPLE_TYPE)){
 						// go up and down on the diagonal, check if both are zero. If so, set it to zero as well.
 						boolean upFlag = (i>1 && j>1 && (sims[i-1][j-1] == 0)) || (i<1 || j<1);
-						boolean downFlag = (i<rowNgram.n-1 && j<columnNgram.n-1 && (sims[i+1][j+1] == 0)) || 
-								(i>rowNgram.n-1 || j>columnNgram.n-1);
+						boolean downFlag = (i<n-1 && j<n-1 && (sims[i+1][j+1] == 0)) || 
+								(i>n-1 || j>n-1);
 						if (upFlag && downFlag) {
 							sims[i][j] = 0;
 						}
@@ -469,23 +327,26 @@ public class FeatureComparator {
 		// decide which n-gram comparison to use: fixed or max similar subsequence
 		double resultSim;
 		int resultN;
-		if (parameters._NGRAM_CMP == NGRAM_CMP.FIX) {
-			double[] res = this.nlp.fcsAll(sims); 
-			resultSim = res[0];
-			resultN = (int) res[1];
+		if (pipeline.fixed) {
+			resultSim = this.nlp.fcs(sims, n);
+			resultN = this.nlp.fcsLength(sims, n);
 		}
 		else { // if MSS
-			resultSim = this.nlp.lcs(sims);
-			resultN = this.nlp.lcsLength(sims);
+			resultSim = this.nlp.lcs(sims, n, n, lcsScores);
+			resultN = this.nlp.lcsLength(sims, n, n, lcsLengths);
 		}
 		
-		// decide on context multiplier
+		return contextResult(resultSim, resultN, rowNgram, columnNgram);
+	}
+	
+	// the final n-gram similarity given the similarity and the length of the matching subsequence: decide on context multiplier
+	private double contextResult(double resultSim, int resultN, NGram rowNgram, NGram columnNgram){
 		double finalResult = 0.0;
-		if(parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT) // average sim if all match
+		if(pipeline.context == CTX_MATCH.CTX_STRICT) // average sim if all match
 			finalResult = (resultN == rowNgram.n)?(resultSim/rowNgram.n):0.0;
-		else if (parameters._CTX_MATCH == CTX_MATCH.CTX_LINEAR)
+		else if (pipeline.context == CTX_MATCH.CTX_LINEAR)
 			finalResult = ((resultN+1.0)/(rowNgram.n + 1.0)) * (resultSim) / rowNgram.n;
-		else if (parameters._CTX_MATCH == CTX_MATCH.CTX_QUAD)
+		else if (pipeline.context == CTX_MATCH.CTX_QUAD)
 			finalResult = Math.pow(((resultN+1.0)/(rowNgram.n + 1.0)), 2) * (resultSim) / rowNgram.n;
 		
 		if (TRACE_SIMILARS && finalResult > 0 && !rowNgram.equals(columnNgram)/* & finalResult > 0.8*/) 
@@ -494,11 +355,46 @@ public class FeatureComparator {
 		return finalResult;
 	}
 	
+	// computes the diagonal of the similarity matrix for CTX_STRICT, returns false at the first zero: first types and type values, then names, 
+	// then attributes. When all are non-zero, no edge on the diagonal is zeroed by the workaround in compareNGram either. 
+	private boolean matchesDiagonal(CompiledNGram row, CompiledNGram column, int n){
+		final ComparisonStage typeStage = pipeline.typeStage, typeValueStage = pipeline.typeValueStage, 
+				nameStage = pipeline.nameStage, attributeStage = pipeline.attributeStage;
+		for (int i=0; i<n; i++) {
+			typeMultipliers[i][i] = typeStage.multiplier(row, i, column, i);
+			typeValueMultipliers[i][i] = typeValueStage.multiplier(row, i, column, i);
+			if (typeMultipliers[i][i] == 0 || typeValueMultipliers[i][i] == 0)
+				return false;
+		}
+		for (int i=0; i<n; i++) {
+			synMultipliers[i][i] = nameStage.multiplier(row, i, column, i);
+			if (synMultipliers[i][i] == 0)
+				return false;
+		}
+		for (int i=0; i<n; i++) {
+			attributeMultipliers[i][i] = attributeStage.multiplier(row, i, column, i);
+			if (attributeMultipliers[i][i] == 0)
+				return false;
+		}
+		for (int i=0; i<n; i++) {
+			sims[i][i] = typeMultipliers[i][i] * synMultipliers[i][i] * attributeMultipliers[i][i] * typeValueMultipliers[i][i];
+			if (!(sims[i][i] > 0))
+				return false;
+		}
+		return true;
+	}
+	
 	// compare two n-trees using the ordered tree edit distance algorithm
 	public double compareNTreeApted(NTreeApted rowNTreeApted, NTreeApted columnNTreeApted) {
+		if(parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT) {
+			int decision = decideStrictly(rowNTreeApted, columnNTreeApted, true);
+			if (decision >= 0) return decision;
+		}
+		
 		float distance;
 		try { 
-			distance = apted.computeEditDistance(rowNTreeApted.aptedTree, columnNTreeApted.aptedTree);
+			costModel.prepare(rowNTreeApted.aptedTree, columnNTreeApted.aptedTree);
+			distance = apted.computeEditDistance(costModel.sourceTree, costModel.destinationTree);
 			assert distance >= 0 && distance <= 1;
 			distance = distance / Math.max(rowNTreeApted.size(), columnNTreeApted.size());			
 		} catch(Exception ex) {
@@ -519,6 +415,11 @@ public class FeatureComparator {
 	
 	// compare two n-trees using the Hungarian algorithm
 	public double compareNTreeHungarian(NTreeApted rowNTreeApted, NTreeApted columnNTreeApted) {
+		if(parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT) {
+			int decision = decideStrictly(rowNTreeApted, columnNTreeApted, false);
+			if (decision >= 0) return decision;
+		}
+		
 		float distance;
 		try { 
 			distance = computeHungarianDistance(rowNTreeApted.aptedTree, columnNTreeApted.aptedTree);
@@ -538,65 +439,198 @@ public class FeatureComparator {
 		}
 	}
 	
-	// compute hungarian distance for n-trees
-	public float computeHungarianDistance(Node<Feature> tree1, Node<Feature> tree2) {
-		Vector<Node<Feature>> children1 = tree1.getChildren();
-		Vector<Node<Feature>> children2 = tree2.getChildren();
+	// compare two n-trees with increasingly costly steps: the ordered tree edit distance is computed only for the pairs with a hungarian similarity of at 
+	// least CASCADE_THRESHOLD (1 for CTX_STRICT), the rest are 0. the hungarian distance is at least (parent distance + leaf count difference) / (1 + max 
+	// leaf count), see computeHungarianDistance, so the pairs out of the threshold with the leaf counts only (parent distance 0), then with the parent 
+	// distance, are left out before the assignment problem. 
+	public double compareNTreeCascade(NTreeApted rowNTreeApted, NTreeApted columnNTreeApted) {
+		double threshold = parameters._CTX_MATCH == CTX_MATCH.CTX_STRICT ? 1.0 : CASCADE_THRESHOLD;
+		Node<Feature> tree1 = rowNTreeApted.aptedTree;
+		Node<Feature> tree2 = columnNTreeApted.aptedTree;
+		int maxLeafCount = Math.max(tree1.getChildren().size(), tree2.getChildren().size());
+		int leafCountDifference = Math.abs(tree1.getChildren().size() - tree2.getChildren().size());
 		
-		Vector<Feature> features1 = new Vector<Feature>();
-		for (Node<Feature> node : children1) features1.add(node.getNodeData());
+		if (1.0 - (double) leafCountDifference / (1 + maxLeafCount) < threshold - CASCADE_TOLERANCE) {
+			cascadeCounts.incrementAndGet(CASCADE_LEAF_COUNT);
+			return 0;
+		}
 		
-		Vector<Feature> features2 = new Vector<Feature>();
-		for (Node<Feature> node : children2) features2.add(node.getNodeData());
+		double parentDistance = 1.0d - compareNGram((NGram) tree1.getNodeData(), (NGram) tree2.getNodeData());
+		if (1.0 - (parentDistance + leafCountDifference) / (1 + maxLeafCount) < threshold - CASCADE_TOLERANCE) {
+			cascadeCounts.incrementAndGet(CASCADE_PARENT);
+			return 0;
+		}
 		
-		// swap TODO check
-		if (features1.size() < features2.size()) {
-			Vector<Feature> featuresTemp = features1;
-			features1 = features2;
-			features2 = featuresTemp;
+		if ((float) compareNTreeHungarian(rowNTreeApted, columnNTreeApted) < (float) threshold) {
+			cascadeCounts.incrementAndGet(CASCADE_HUNGARIAN);
+			return 0;
 		}
 		
-		// build a comparison matrix for all the features in the leaves 
-		double[][] comparisonMatrix = new double[features1.size()][features2.size()];
-		for (int i=0; i<features1.size(); i++) {			
-			for (int j=0; j<features2.size(); j++) {
-				comparisonMatrix[i][j] = 1.0d - compareNGram((NGram) features1.get(i), (NGram) features2.get(j));
+		cascadeCounts.incrementAndGet(CASCADE_APTED);
+		return compareNTreeApted(rowNTreeApted, columnNTreeApted);
+	}
+	
+	// how many n-tree pairs each cascade step resolved, since the last reset
+	public String getCascadeCounts() {
+		return "leaf count bound " + cascadeCounts.get(CASCADE_LEAF_COUNT) + ", parent bound " + cascadeCounts.get(CASCADE_PARENT) 
+				+ ", hungarian " + cascadeCounts.get(CASCADE_HUNGARIAN) + ", tree edit distance " + cascadeCounts.get(CASCADE_APTED);
+	}
+	
+	public void resetCascadeCounts() {
+		for (int i=0; i<cascadeCounts.length(); i++)
+			cascadeCounts.set(i, 0);
+	}
+	
+	// for CTX_STRICT, n-trees are similar (1) only at distance zero, i.e. when all the nodes can be matched with fully similar nodes. That needs equal 
+	// structural fingerprints (the shape plus the type sequences, see CompiledNGram.typeFingerprint, with children in order for the tree edit distance 
+	// and as a multiset for the Hungarian algorithm, which only looks at the children of the root). Different fingerprints give 0, and fully similar 
+	// nodes at the same positions give 1. Otherwise returns -1, and the distance has to be computed. 
+	private int decideStrictly(NTreeApted rowNTreeApted, NTreeApted columnNTreeApted, boolean ordered) {
+		try {
+			if (ordered) {
+				if (orderedFingerprint(rowNTreeApted.aptedTree) != orderedFingerprint(columnNTreeApted.aptedTree))
+					return 0;
+				return isFullySimilarInOrder(rowNTreeApted.aptedTree, columnNTreeApted.aptedTree)?1:-1;
+			}
+			else {
+				if (unorderedFingerprint(rowNTreeApted.aptedTree) != unorderedFingerprint(columnNTreeApted.aptedTree))
+					return 0;
 				
-				// if completely different (1.0), set to 2.0
-				if (comparisonMatrix[i][j] >= 1.0) 
-					comparisonMatrix[i][j] = 2.0;
+				// same as in computeHungarianDistance, with doubles
+				Vector<Node<Feature>> children1 = rowNTreeApted.aptedTree.getChildren();
+				Vector<Node<Feature>> children2 = columnNTreeApted.aptedTree.getChildren();
+				if (compareNGram((NGram) rowNTreeApted.aptedTree.getNodeData(), (NGram) columnNTreeApted.aptedTree.getNodeData()) != 1.0)
+					return -1;
+				for (int i=0; i<children1.size(); i++)
+					if (compareNGram((NGram) children1.get(i).getNodeData(), (NGram) children2.get(i).getNodeData()) != 1.0)
+						return -1;
+				return 1;
 			}
+		} catch(Exception ex) {
+			// leave it to the distance computation (and its error handling)
+			return -1;
+		}
+	}
+	
+	private long nodeFingerprint(Node<Feature> node) {
+		NGram ngram = (NGram) node.getNodeData();
+		if (!pipeline.typesCompared)
+			return ngram.n;
+		return CompiledNGram.of(ngram, reverseDictionary).typeFingerprint;
+	}
+	
+	private long orderedFingerprint(Node<Feature> tree) {
+		long fingerprint = nodeFingerprint(tree) * 31 + tree.getChildren().size();
+		for (Node<Feature> child : tree.getChildren())
+			fingerprint = fingerprint * 1000003 + orderedFingerprint(child);
+		return fingerprint;
+	}
+	
+	private long unorderedFingerprint(Node<Feature> tree) {
+		Vector<Node<Feature>> children = tree.getChildren();
+		long[] childFingerprints = new long[children.size()];
+		for (int i=0; i<children.size(); i++)
+			childFingerprints[i] = nodeFingerprint(children.get(i));
+		Arrays.sort(childFingerprints);
+		
+		long fingerprint = nodeFingerprint(tree) * 31 + children.size();
+		for (long childFingerprint : childFingerprints)
+			fingerprint = fingerprint * 1000003 + childFingerprint;
+		return fingerprint;
+	}
+	
+	// whether the trees have the same shape and all the nodes at the same positions have zero rename cost (see FeatureCostModel)
+	private boolean isFullySimilarInOrder(Node<Feature> tree1, Node<Feature> tree2) {
+		if (tree1.getChildren().size() != tree2.getChildren().size())
+			return false;
+		if ((float) compareNGram((NGram) tree1.getNodeData(), (NGram) tree2.getNodeData()) != 1.0f)
+			return false;
+		for (int i=0; i<tree1.getChildren().size(); i++)
+			if (!isFullySimilarInOrder(tree1.getChildren().get(i), tree2.getChildren().get(i)))
+				return false;
+		return true;
+	}
+	
+	// compute hungarian distance for n-trees
+	public float computeHungarianDistance(Node<Feature> tree1, Node<Feature> tree2) {
+		Vector<Node<Feature>> children1 = tree1.getChildren();
+		Vector<Node<Feature>> children2 = tree2.getChildren();
+		
+		// swap TODO check
+		if (children1.size() < children2.size()) {
+			Vector<Node<Feature>> childrenTemp = children1;
+			children1 = children2;
+			children2 = childrenTemp;
 		}
 		
 		// do a composite distance using the parent distance and leaf distances combined
 		double parentDistance = 1.0d - compareNGram((NGram) tree1.getNodeData(), (NGram) tree2.getNodeData());
-		int minLeafCount = Math.min(features1.size(), features2.size()); 
-		int maxLeafCount = Math.max(features1.size(), features2.size());
+		int minLeafCount = children2.size(); 
+		int maxLeafCount = children1.size();
 		double leavesDistance = 0.0;
 		
-		if (features1.size() == 0 && features2.size() == 0) {
+		if (maxLeafCount == 0) {
 			leavesDistance = 0.0;
 			return (float) ((parentDistance + leavesDistance) / (1 + maxLeafCount));
 		}
 		else if (minLeafCount == 0) {
-			leavesDistance = Math.max(features1.size(), features2.size());
+			leavesDistance = maxLeafCount;
 			return (float) ((parentDistance + leavesDistance) / (1 + maxLeafCount));
 		}
-		else{ // the normal distance computation
-			HungarianAlgorithm hungarian = new HungarianAlgorithm(comparisonMatrix);
-			int[] match = hungarian.execute();
-			double cost = hungarian.computeCost(comparisonMatrix, match);
-			
-			leavesDistance = cost + Math.abs(features1.size() - features2.size());
-			
-			for (int i = 0; i<match.length; i++) {
-				if (match[i] != -1 && comparisonMatrix[i][match[i]] > 1)
-					maxLeafCount++;
-			}
-			
+		
+		// build a comparison matrix for all the features in the leaves, starting with the leaves at the same positions (children are sorted). if these 
+		// are all fully similar (e.g. for the same multiset of children), matching them is already an optimal assignment with zero cost
+		int rows = maxLeafCount, columns = minLeafCount;
+		double[][] comparisonMatrix = assignmentSolver.costMatrix(rows, columns);
+		int inOrder = 0;
+		while (inOrder < columns) {
+			comparisonMatrix[inOrder][inOrder] = leafDistance(children1.get(inOrder), children2.get(inOrder));
+			if (comparisonMatrix[inOrder][inOrder] != 0.0)
+				break;
+			inOrder++;
+		}
+		if (inOrder == columns) {
+			leavesDistance = rows - columns;
 			return (float) ((parentDistance + leavesDistance) / (1 + maxLeafCount));
 		}
-		 
+		
+		for (int i=0; i<rows; i++) {			
+			for (int j=0; j<columns; j++) {
+				if (i != j || i > inOrder)
+					comparisonMatrix[i][j] = leafDistance(children1.get(i), children2.get(j));
+			}
+		}
+		
+		// the normal distance computation. the number of matched completely different leaves (2.0) counts in the distance, and can differ between tied 
+		// optimal assignments: then the assignment of the original solver is taken
+		int[] match = assignmentSolver.solve(rows, columns);
+		if (!assignmentSolver.isCountForced(rows, columns, 1.0)) {
+			double[][] matrix = new double[rows][];
+			for (int i=0; i<rows; i++)
+				matrix[i] = Arrays.copyOf(comparisonMatrix[i], columns);
+			match = new HungarianAlgorithm(matrix).execute();
+		}
+		double cost = 0.0;
+		for (int i = 0; i<rows; i++) {
+			if (match[i] != -1)
+				cost += comparisonMatrix[i][match[i]];
+		}
+		
+		leavesDistance = cost + (rows - columns);
+		
+		for (int i = 0; i<rows; i++) {
+			if (match[i] != -1 && comparisonMatrix[i][match[i]] > 1)
+				maxLeafCount++;
+		}
+		
+		return (float) ((parentDistance + leavesDistance) / (1 + maxLeafCount));
+	}
+	
+	private double leafDistance(Node<Feature> leaf1, Node<Feature> leaf2) {
+		double distance = 1.0d - compareNGram((NGram) leaf1.getNodeData(), (NGram) leaf2.getNodeData());
+		
+		// if completely different (1.0), set to 2.0
+		return distance >= 1.0 ? 2.0 : distance;
 	}
 
 	// aux method for getting a default value for an attribute, if not in the key-value map
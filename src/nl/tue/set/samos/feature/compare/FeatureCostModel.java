@@ -26,33 +26,82 @@
 
 package nl.tue.set.samos.feature.compare;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
 import costmodel.CostModel;
 import nl.tue.set.samos.feature.Feature;
 import nl.tue.set.samos.feature.NGram;
 import node.Node;
-import node.StringNodeData;
 
 /**
- * This is a unit-cost model defined on string labels.
+ * This is a unit-cost model on label-encoded feature trees. Before a tree pair is compared, the labels (n-grams) of each tree are interned to integer 
+ * ids and the rename costs are computed once for all the label pairs, so the tree edit distance only does matrix lookups.
  *
  * @see CostModel
- * @see StringNodeData
  */
- // TODO: Use a label dictionary to encode string labels with integers for
- //       faster rename cost computation.
-public class FeatureCostModel implements CostModel<Feature> {
+public class FeatureCostModel implements CostModel<Integer> {
 	
 	private FeatureComparator comparator;
+	
+	// the current tree pair with the label ids as node data (see prepare), and the labels for the ids
+	Node<Integer> sourceTree, destinationTree;
+	private final ArrayList<Feature> sourceLabels = new ArrayList<Feature>();
+	private final ArrayList<Feature> destinationLabels = new ArrayList<Feature>();
+	private final HashMap<Feature, Integer> labelIds = new HashMap<Feature, Integer>();
+	
+	// rename costs for the source x destination labels, reused (and grown on demand) for all the tree pairs
+	private float[][] renameCosts = new float[0][0];
 
 	public FeatureCostModel(FeatureComparator comparator){ this.comparator = comparator;}
 	
+	/**
+	 * Encodes the trees to compare next, and computes the rename costs for their labels.
+	 *
+	 * @param tree1 source tree.
+	 * @param tree2 destination tree.
+	 */
+	public void prepare(Node<Feature> tree1, Node<Feature> tree2) {
+		sourceTree = encode(tree1, sourceLabels);
+		destinationTree = encode(tree2, destinationLabels);
+		
+		if (renameCosts.length < sourceLabels.size() || renameCosts[0].length < destinationLabels.size()) {
+			int capacity = Math.max(renameCosts.length, Math.max(sourceLabels.size(), destinationLabels.size()));
+			renameCosts = new float[capacity][capacity];
+		}
+		for (int i=0; i<sourceLabels.size(); i++) {
+			NGram label1 = (NGram) sourceLabels.get(i);
+			for (int j=0; j<destinationLabels.size(); j++)
+				renameCosts[i][j] = 1.0f - (float) comparator.compareNGram(label1, (NGram) destinationLabels.get(j));
+		}
+	}
+	
+	private Node<Integer> encode(Node<Feature> tree, ArrayList<Feature> labels) {
+		labels.clear();
+		labelIds.clear();
+		return encode(tree, labels, labelIds);
+	}
+	
+	private Node<Integer> encode(Node<Feature> node, ArrayList<Feature> labels, HashMap<Feature, Integer> ids) {
+		Integer id = ids.get(node.getNodeData());
+		if (id == null) {
+			id = labels.size();
+			ids.put(node.getNodeData(), id);
+			labels.add(node.getNodeData());
+		}
+		Node<Integer> encoded = new Node<Integer>(id);
+		for (Node<Feature> child : node.getChildren())
+			encoded.addChild(encode(child, labels, ids));
+		return encoded;
+	}
+	
   /**
    * Calculates the cost of deleting a node.
    *
    * @param n a node considered to be deleted.
    * @return {@code 1} - a fixed cost of deleting a node.
    */
-  public float del(Node<Feature> n) {  
+  public float del(Node<Integer> n) {  
     return 1.0f;
   }
 
@@ -62,27 +111,22 @@ public class FeatureCostModel implements CostModel<Feature> {
    * @param n a node considered to be inserted.
    * @return {@code 1} - a fixed cost of inserting a node.
    */
-  public float ins(Node<Feature> n) {
+  public float ins(Node<Integer> n) {
     return 1.0f;
   }
 
   /**
-   * Calculates the cost of renaming the label of the source node to the label
+   * Looks up the cost of renaming the label of the source node to the label
    * of the destination node.
    *
    * @param n1 a source node for rename.
    * @param n2 a destination node for rename.
-   * @return {@code 1} if labels of renamed nodes are equal, and {@code 0} otherwise.
+   * @return {@code 1} minus the similarity of the labels, as computed in {@link #prepare}.
    */
-  public float ren(Node<Feature> n1, Node<Feature> n2) {	  
-	  Feature f1 = n1.getNodeData();
-	  Feature f2 = n2.getNodeData();
-	  float f = 1.0f - (float) comparator.compareNGram((NGram) f1, (NGram) f2);
-	  
+  public float ren(Node<Integer> n1, Node<Integer> n2) {	  
 	  // TODO: what if completely different? should have 2 as distance? 1x delete + 1x insert? 
 	  // also need to change the denominator in the sim. formula then. 
 	  
-	  return f;
-	  
+	  return renameCosts[n1.getNodeData()][n2.getNodeData()];
   }
-}
\ No newline at end of file
+}
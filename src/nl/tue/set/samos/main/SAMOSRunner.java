@@ -32,6 +32,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -80,6 +81,10 @@ import nl.tue.set.samos.vsm.VSMBuilder;
  *
  *	--clone FOLDER_NAME
  *	Runs clone detection with standard settings for all the metamodels under the folder data/[FOLDER_NAME]. E.g. run with --cluster atlzoo for the crawled atlzoo dataset. 
+ *
+ *	--cluster FOLDER_NAME --incremental, --clone FOLDER_NAME --incremental
+ *	The same, keeping the raw vsm in the vsm folder and reusing it for the unchanged models in the next run (see VSMBuilder.INCREMENTAL). The stored vsm 
+ *	is not invalidated by changes in the comparison code, WordNet or the NLP precomputation; remove the vsm-*.state files of the vsm folder after those. 
  */
 public class SAMOSRunner {
 	
@@ -96,16 +101,21 @@ public class SAMOSRunner {
 			}
 			return;
 		}
-		else if (args.length == 2 && (args[0].equals("--clone") || args[0].equals("--cluster")))  {
+		else if ((args.length == 2 || (args.length == 3 && args[2].equals("--incremental"))) && (args[0].equals("--clone") || args[0].equals("--cluster")))  {
 			// ok, continue below
 		}
 		else {
-			logger.error("Need two arguments for crawling (--crawl targetfolder) or running samos (--cluster targetfolder or --clone targetfolder)");
+			logger.error("Need two arguments for crawling (--crawl targetfolder) or running samos (--cluster targetfolder or --clone targetfolder, optionally followed by --incremental)");
 			return;
 		}
 		
 		SAMOSRunner samos = new SAMOSRunner(args);		
 		
+		// spread the vsm computation over all the available cores
+		samos.vsmBuilder.PARALLELISM = Runtime.getRuntime().availableProcessors();
+		// optionally reuse the stored raw vsm of the previous run for the unchanged models
+		samos.vsmBuilder.INCREMENTAL = args.length == 3;
+		
 		try {
 			if (args[0].substring(2).equalsIgnoreCase(GOAL.CLUSTER.toString())) {
 				// standard settings for clustering with UNIGRAM-NAME combination for the model scope
@@ -316,6 +326,7 @@ public class SAMOSRunner {
 	public void precomputeNLP(STRUCTURE _STRUCTURE, SYNONYM_TRESHOLD _SYNONYM_TRESHOLD) {
 		long start = System.currentTimeMillis();
 		NLP nlp = new NLP();
+		nlp.PARALLELISM = vsmBuilder.PARALLELISM;
 		SERIALIZATION _SERIALIZATION = _STRUCTURE.equals(STRUCTURE.NTREE)?SERIALIZATION.JSON:SERIALIZATION.PLAIN;
 		try {
 			nlp.precomputeTokenLookupTable(configuration.featureFolder, _SERIALIZATION);
@@ -344,6 +355,9 @@ public class SAMOSRunner {
 		File outputFolder = new File(configuration.vsmFolder);
 		if (!outputFolder.exists())
 			outputFolder.mkdirs();
+		
+		// both vsms are computed on the same parsed features, with shared NLP 
+		LinkedHashMap<String, Parameters> paramsPerTag = new LinkedHashMap<String, Parameters>();
 				
 		// normal run - run the regular vsm computation with relaxed similarity scores, etc. 
 		{
@@ -357,8 +371,7 @@ public class SAMOSRunner {
 			Parameters params = new Parameters(null, _UNIT, _STRUCTURE, _WEIGHT, _IDF, _TYPE_MATCH, _SYNONYM, _SYNONYM_TRESHOLD, _NGRAM_CMP, _CTX_MATCH, _FREQ, _VSM_MODE);
 			// precompute and store nlp for better performance
 			precomputeNLP(_STRUCTURE, _SYNONYM_TRESHOLD);
-			// compute the VSM
-			buildVSMCommon(params, "cloneFull");	
+			paramsPerTag.put("cloneFull", params);
 		}
 		
 		// mask run - run the very strict (binary) vsm run for masking purposes in the distance computation
@@ -371,10 +384,12 @@ public class SAMOSRunner {
 			CTX_MATCH _CTX_MATCH = CTX_MATCH.CTX_STRICT;
 					
 			Parameters params = new Parameters(null, _UNIT, _STRUCTURE, _WEIGHT, _IDF, _TYPE_MATCH, _SYNONYM, _SYNONYM_TRESHOLD, _NGRAM_CMP, _CTX_MATCH, _FREQ, _VSM_MODE);
-			// compute the VSM
-			buildVSMCommon(params, "cloneMask");	
+			paramsPerTag.put("cloneMask", params);
 		}
 		
+		// compute the VSMs
+		vsmBuilder.buildVSMs(paramsPerTag);
+		
 		// compute also the sizes
 		FileUtil.printFeatureSizes(configuration.featureFolder, configuration.vsmFolder, _STRUCTURE.toString());
 		
@@ -28,8 +28,15 @@ package nl.tue.set.samos.nlp;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.*;
 
 
 // n + v only
@@ -38,17 +45,21 @@ import java.util.regex.*;
 // https://github.com/thdiaman/WNTools/blob/master/LICENSE.md
 // https://github.com/thdiaman/WNTools
 
+// the IC file is converted once to a compact binary file next to it (the IC file name + ".bin", see 'convert'), which is memory mapped on later runs:
+// the sorted noun and verb {synset} offsets with their counts, the root offsets, and the sums of the counts. the counts are looked up by binary search
+
 @SuppressWarnings("unused")
 public class ICFinder
 {
-	private Pattern 					p 				=	null;
-	private Matcher 					m 			=	null;
-	private String[]					editor		=	null;
+	private static final int	BINARY_MAGIC		=	0x53494331; // "SIC1"
+	private static final int	BINARY_VERSION	=	2;
+	private static final int	BINARY_HEADER		=	12; // magic, version, total length
 	private String					icfilename	=	"";
-	private BufferedReader		in				=	null;
-	private String					line			=	"";
-// look up
-	private Hashtable<String, Double>	lookup	=	null; // quick look up for synset counts (we require Double as Resnik counts are doubles)
+// look up: sorted {synset} offsets and their counts (we require double as Resnik counts are doubles), for nouns and verbs
+	private IntBuffer				nounoffsets	=	null;
+	private DoubleBuffer			nouncounts	=	null;
+	private IntBuffer				verboffsets	=	null;
+	private DoubleBuffer			verbcounts	=	null;
 // counts for nouns and verbs
 	private	double					nouns_sum								=	0.0;
 	private	double					verbs_sum								=	0.0;
@@ -61,22 +72,36 @@ public class ICFinder
 
 	public ICFinder(String icfilename)
 	{
-//		System.out.println("... calculating IC <roots> ...");
-//		System.out.println("... ICFinder");
-
 // your IC file
 		this.icfilename = icfilename;
-// quick look up table
-		lookup	=	new Hashtable<String, Double>();
-// get some useful 'constants'
-		nounroots = new ArrayList<String>();
-		verbroots = new ArrayList<String>();
-		Vector<Double> constants = setup();
-		nouns_sum				=	constants.get(0);
-		verbs_sum				=	constants.get(1);
-		nounsandverbs_sum	=	( nouns_sum + verbs_sum );
-		nounroot_sum			=	constants.get(2);
-		verbroot_sum			=	constants.get(3);
+		File			textfile		=	new File(icfilename);
+		File			binaryfile	=	new File(icfilename + ".bin");
+		ByteBuffer	buffer			=	null;
+		try
+		{
+// convert the IC file once, the binary file is then memory mapped. a truncated or older format binary file is converted again
+			if(binaryfile.exists() && binaryfile.lastModified() >= textfile.lastModified())
+			{
+				try(FileChannel channel = FileChannel.open(binaryfile.toPath(), StandardOpenOption.READ))
+				{
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+				catch (IOException e){e.printStackTrace();} // converted again below
+				if(buffer != null && !isValid(buffer))
+					buffer = null;
+			}
+			if(buffer == null)
+			{
+				buffer = convert(textfile);
+				write(buffer, binaryfile);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			buffer = toBinary(new LinkedHashMap<String, Double>(), new double[4], new ArrayList<String>(), new ArrayList<String>());
+		}
+		load(buffer);
 	}
 
 	public double getRootSum(String pos)
@@ -90,15 +115,58 @@ public class ICFinder
 // 'getFrequency': get the count for the {synset} from the IC file
 	private double getFrequency(String synset, String pos)
 	{
-		if(lookup.containsKey(synset + pos))
-			return ( lookup.get(synset + pos) );
+		int offset;
+		try
+		{
+			offset = Integer.parseInt(synset);
+		}
+		catch(NumberFormatException e)
+		{
+			return ( 0.0 );
+		}
+		if(!synset.equals(Integer.toString(offset))) // the IC file offsets are not zero-padded
+			return ( 0.0 );
+		return ( getFrequency(offset, pos) );
+	}
+
+	private double getFrequency(int offset, String pos)
+	{
+		IntBuffer			offsets	=	null;
+		DoubleBuffer	counts	=	null;
+		if(pos.equals("n"))
+		{
+			offsets = nounoffsets; counts = nouncounts;
+		}
+		else if(pos.equals("v"))
+		{
+			offsets = verboffsets; counts = verbcounts;
+		}
+		else
+			return ( 0.0 );
+// binary search on the sorted offsets
+		int low = 0, high = offsets.limit() - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int midoffset = offsets.get(mid);
+			if(midoffset < offset)
+				low = mid + 1;
+			else if(midoffset > offset)
+				high = mid - 1;
+			else
+				return ( counts.get(mid) );
+		}
     	return ( 0.0 );
 	}
 
 // 'getProbability': get the probability of the {synset}
 	private double getProbability(String synset, String pos)
 	{
-		double 	freq			=	getFrequency(synset, pos);
+		return ( getProbability(getFrequency(synset, pos), pos) );
+	}
+
+	private double getProbability(double freq, String pos)
+	{
 		if(freq == 0.0)
 			return ( 0.0 );
 
@@ -133,7 +201,18 @@ public class ICFinder
 // .......................................................................................................................................................................................
 // Case 2. There is an <lcs> but it has a frequency of zero and thus it has a probability of zero and thus is just not valid as input
 // to the Information Content equation ( we will get 'Infinity') - so, we simply return 0
-		double p			 	=	getProbability(synset, pos);
+		return ( getInformationContent(getProbability(synset, pos)) );
+	}
+
+// the same as getIC("" + offset, pos), for a {synset} offset
+	public double getIC(int offset, String pos)
+	{
+		return ( getInformationContent(getProbability(getFrequency(offset, pos), pos)) );
+	}
+
+	private double getInformationContent(double p)
+	{
+		double ic = 0.0;
 		if(p == 0.0)
 		{
 			return ( ic );
@@ -149,59 +228,199 @@ public class ICFinder
     	return ( ic );
 	}
 
-// utility: get counts for {synsets} | just nouns | just verbs | noun'fake'<root> | verb'fake'<root>
-// these are used to calculate probabilities of {synsets} and to 'back-off' to a <root> value if no LCS exists for 2 words
-	private Vector<Double> setup()
-	{
-		String	unit	=	"";
-		double	uc		=	0.0;
-		double	nc		=	0.0;
-		double	vc		=	0.0;
-		double	nrc	=	0.0;
-		double	vrc	=	0.0;
-		Vector<Double>	counts = new Vector<Double>();
-    	try
-    	{
-        	in = new BufferedReader(new FileReader(icfilename));
-        	while ((line = in.readLine()) != null)
-        	{
-				editor = line.split("\\s"); // IC files are space delimited
+// 'convert': parse the IC file into the binary format. as in the original look up table, the count of a {synset} is the last one in the IC file, and
+// a count is added to the sums for each unit of the line ending in 'n' (or 'v')
+	public static ByteBuffer convert(File icfile) throws IOException
+	{
+		LinkedHashMap<String, Double>	lookup		=	new LinkedHashMap<String, Double>();
+		double[]							sums			=	new double[4]; // nouns, verbs, noun<roots>, verb<roots>
+		ArrayList<String>				nounroots	=	new ArrayList<String>();
+		ArrayList<String>				verbroots	=	new ArrayList<String>();
+		String	line	=	"";
+		try(BufferedReader in = new BufferedReader(new FileReader(icfile)))
+		{
+			while ((line = in.readLine()) != null)
+			{
+				String[] editor = line.split("\\s"); // IC files are space delimited
 				for(int i = 0; i < editor.length; i++)
 				{
-					unit	=	editor[i];
-// nouns
-					if(unit.endsWith("n"))
+					String unit = editor[i];
+					boolean noun = unit.endsWith("n");
+					if(noun || unit.endsWith("v"))
 					{
-						lookup.put(editor[0], Double.parseDouble(editor[1]));
-						uc =		Double.parseDouble(editor[1]); // get the value: the 'count' for the {synset}
-						nc	+=	uc;// add to noun total
+						double uc = Double.parseDouble(editor[1]); // get the value: the 'count' for the {synset}
+						lookup.put(editor[0], uc);
+						sums[noun ? 0 : 1] += uc;
 						if(editor.length == 3) // if ROOT
 						{
-							nrc += uc;// add to noun<root> total
-							// store noun <root>
-							nounroots.add(editor[0].substring(0,editor[0].length()-1));
-						}
-					}
-// verbs
-					if(unit.endsWith("v"))
-					{
-						lookup.put(editor[0], Double.parseDouble(editor[1]));
-						uc =		Double.parseDouble(editor[1]); // get the value: the 'count' for the {synset}
-						vc	+=	uc; // add to verb total
-						if(editor.length == 3) // if ROOT
-						{
-							vrc += uc; // add to verb<root> total
-							// store verb<root>
-							verbroots.add(editor[0].substring(0,editor[0].length()-1));
+							sums[noun ? 2 : 3] += uc;
+							(noun ? nounroots : verbroots).add(editor[0].substring(0,editor[0].length()-1));
 						}
 					}
 				}
-        	}
-        in.close();
-    	}
-    	catch (IOException e){e.printStackTrace();}
-    	counts.add(nc); counts.add(vc); counts.add(nrc);	counts.add(vrc);
-    	return ( counts );
+			}
+		}
+		return ( toBinary(lookup, sums, nounroots, verbroots) );
+	}
+
+// write the binary file through a temporary file in the same folder, which is removed if anything fails (e.g. a read only WordNet folder: the 
+// converted IC file is used anyway)
+	private static void write(ByteBuffer buffer, File binaryfile)
+	{
+		File temporaryfile = null;
+		try
+		{
+			temporaryfile = File.createTempFile(binaryfile.getName(), ".tmp", binaryfile.getAbsoluteFile().getParentFile());
+			Files.write(temporaryfile.toPath(), buffer.array());
+			try
+			{
+				Files.move(temporaryfile.toPath(), binaryfile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temporaryfile.toPath(), binaryfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e){e.printStackTrace();}
+		finally
+		{
+			if(temporaryfile != null)
+				temporaryfile.delete();
+		}
+	}
+
+// binary format: magic, version, total length, the 4 sums, then for nouns and verbs the number of {synsets}, their sorted offsets and their counts, then for nouns and verbs
+// the number of <roots> and their offsets. only the '<offset>n' and '<offset>v' keys can be looked up (getIC takes "" + offset) and are kept
+	private static ByteBuffer toBinary(Map<String, Double> lookup, double[] sums, List<String> nounroots, List<String> verbroots)
+	{
+		TreeMap<Integer, Double>	nouns	=	new TreeMap<Integer, Double>();
+		TreeMap<Integer, Double>	verbs	=	new TreeMap<Integer, Double>();
+		for(Map.Entry<String, Double> entry : lookup.entrySet())
+		{
+			String	key		=	entry.getKey();
+			if(!key.endsWith("n") && !key.endsWith("v"))
+				continue;
+			Integer	offset	=	parseOffset(key.substring(0, key.length() - 1));
+			if(offset == null)
+				continue;
+			if(key.endsWith("n"))
+				nouns.put(offset, entry.getValue());
+			else if(key.endsWith("v"))
+				verbs.put(offset, entry.getValue());
+		}
+		int[] nounrootoffsets = parseOffsets(nounroots), verbrootoffsets = parseOffsets(verbroots);
+		int length = BINARY_HEADER + 8 * 4 + 4 * 4 + 12 * (nouns.size() + verbs.size()) + 4 * (nounrootoffsets.length + verbrootoffsets.length);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(BINARY_MAGIC);
+		buffer.putInt(BINARY_VERSION);
+		buffer.putInt(length);
+		for(double sum : sums)
+			buffer.putDouble(sum);
+		for(TreeMap<Integer, Double> counts : Arrays.asList(nouns, verbs))
+		{
+			buffer.putInt(counts.size());
+			for(Integer offset : counts.keySet())
+				buffer.putInt(offset);
+			for(Double count : counts.values())
+				buffer.putDouble(count);
+		}
+		for(int[] roots : Arrays.asList(nounrootoffsets, verbrootoffsets))
+		{
+			buffer.putInt(roots.length);
+			for(int root : roots)
+				buffer.putInt(root);
+		}
+		buffer.flip();
+		return ( buffer );
+	}
+
+	private static Integer parseOffset(String synset)
+	{
+		try
+		{
+			int offset = Integer.parseInt(synset);
+			return ( synset.equals(Integer.toString(offset)) ? offset : null );
+		}
+		catch(NumberFormatException e)
+		{
+			return ( null );
+		}
+	}
+
+	private static int[] parseOffsets(List<String> synsets)
+	{
+		int[]	offsets	=	new int[synsets.size()];
+		int		count		=	0;
+		for(String synset : synsets)
+		{
+			Integer offset = parseOffset(synset);
+			if(offset != null)
+				offsets[count++] = offset;
+		}
+		return ( Arrays.copyOf(offsets, count) );
+	}
+
+// 'load': set up the look up and the sums from the binary format; the offsets and counts are views on the (mapped) buffer
+// 'isValid': whether the buffer has the header of the current format, the length in the header, and the sections filling exactly that length
+	private static boolean isValid(ByteBuffer buffer)
+	{
+		long length = buffer.capacity();
+		if(length < BINARY_HEADER + 8 * 4 || buffer.getInt(0) != BINARY_MAGIC || buffer.getInt(4) != BINARY_VERSION || buffer.getInt(8) != length)
+			return ( false );
+		long position = BINARY_HEADER + 8 * 4;
+		for(int section = 0; section < 4; section++) // noun and verb {synsets}, noun and verb <roots>
+		{
+			if(position + 4 > length)
+				return ( false );
+			int size = buffer.getInt((int) position);
+			if(size < 0)
+				return ( false );
+			position += 4 + (long) size * (section < 2 ? 12 : 4);
+		}
+		return ( position == length );
+	}
+
+	private void load(ByteBuffer buffer)
+	{
+		if(!isValid(buffer))
+			throw new IllegalArgumentException("not a binary IC file: " + icfilename + ".bin");
+		int position = BINARY_HEADER;
+		nouns_sum				=	buffer.getDouble(position);
+		verbs_sum				=	buffer.getDouble(position + 8);
+		nounsandverbs_sum	=	( nouns_sum + verbs_sum );
+		nounroot_sum			=	buffer.getDouble(position + 16);
+		verbroot_sum			=	buffer.getDouble(position + 24);
+		position += 32;
+		IntBuffer[]		offsets	=	new IntBuffer[2];
+		DoubleBuffer[]	counts	=	new DoubleBuffer[2];
+		for(int k = 0; k < 2; k++)
+		{
+			int size = buffer.getInt(position);
+			position += 4;
+			offsets[k] = slice(buffer, position, 4 * size).asIntBuffer();
+			position += 4 * size;
+			counts[k] = slice(buffer, position, 8 * size).asDoubleBuffer();
+			position += 8 * size;
+		}
+		nounoffsets = offsets[0]; nouncounts = counts[0];
+		verboffsets = offsets[1]; verbcounts = counts[1];
+		nounroots = new ArrayList<String>();
+		verbroots = new ArrayList<String>();
+		for(ArrayList<String> roots : Arrays.asList(nounroots, verbroots))
+		{
+			int size = buffer.getInt(position);
+			position += 4;
+			for(int i = 0; i < size; i++, position += 4)
+				roots.add(Integer.toString(buffer.getInt(position)));
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length)
+	{
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(position);
+		duplicate.limit(position + length);
+		return ( duplicate.slice() );
 	}
 
 	public ArrayList<String>	getNounRoots()
@@ -215,9 +434,9 @@ public class ICFinder
 
 
 
-// test it
+// convert the IC file given as argument (once, see the constructor)
     public static void main(String[] args)
     {
-		ICFinder icfinder = new ICFinder("wordnet/semcor/ic-semcor.dat");
+		ICFinder icfinder = new ICFinder(args.length > 0 ? args[0] : "wordnet/semcor/ic-semcor.dat");
     }
 }
\ No newline at end of file
@@ -47,7 +47,8 @@ public class Lemmatizer {
 		pipeline = new StanfordCoreNLP(props, false);
 	}
 
-	public static Lemmatizer getInstance() {
+	// synchronized, as NLP instances of comparison contexts and extractors may be used from several threads
+	public static synchronized Lemmatizer getInstance() {
 		if (m_lemmatizer == null) {
 			m_lemmatizer = new Lemmatizer();
 		}
@@ -55,7 +56,8 @@ public class Lemmatizer {
 
 	}
 
-	public String getLemma(String text) {
+	// synchronized, the pipeline is shared by all users of the singleton
+	public synchronized String getLemma(String text) {
 		String lemma = "";
 		if (text == null) text = "";
 		Annotation document = pipeline.process(text);
@@ -131,10 +131,10 @@ alternatives.
 // ...........................................................................................................................................
 
 // {synset} 1 IC
-		double ic1	=	icfinder.getIC(""+ synset1.getOffset(), pos);
+		double ic1	=	icfinder.getIC(synset1.getOffset(), pos);
 		//System.out.println(ic1);
 // {synset} 2 IC
-		double ic2	=	icfinder.getIC(""+ synset2.getOffset(), pos);
+		double ic2	=	icfinder.getIC(synset2.getOffset(), pos);
 		//System.out.println(ic2);
 // [error check] If IC(synset1) or IC(synset2) is zero, then zero is returned as the relatedness score, due to lack of data.
 		if(ic1 == 0.0 || ic2 == 0.0)
@@ -152,7 +152,7 @@ alternatives.
 		}
 		else
 		{
-			ic3	=	icfinder.getIC(""+ lcs.getOffset(), pos);
+			ic3	=	icfinder.getIC(lcs.getOffset(), pos);
 		}
 		//System.out.println(ic3);
 // ...........................................................................................................................................
@@ -324,7 +324,7 @@ alternatives.
 		ISynsetID	maxlcs	=	null;
 		for(ISynsetID h : h1)
 		{
-			double ic = icfinder.getIC("" + h.getOffset(), pos); // use ICfinder to get the Information Content value
+			double ic = icfinder.getIC(h.getOffset(), pos); // use ICfinder to get the Information Content value
 			if(ic > max)
 			{
 				max 		=	ic;
@@ -44,6 +44,11 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,10 +59,10 @@ import org.slf4j.LoggerFactory;
 //import edu.cmu.lti.ws4j.impl.Lin;
 import edu.cmu.lti.ws4j.util.WS4JConfiguration;
 import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.IRAMDictionary;
 import edu.mit.jwi.RAMDictionary;
 import edu.mit.jwi.item.POS;
 import nl.tue.set.samos.common.Constants;
-import nl.tue.set.samos.common.Pair;
 import nl.tue.set.samos.common.enums.SERIALIZATION;
 import nl.tue.set.samos.feature.Feature;
 import nl.tue.set.samos.feature.NGram;
@@ -105,6 +110,9 @@ public class NLP {
 	public HashMap<String, Double> synLookup = new HashMap<String, Double>();
 		
 	public Lin lin;
+	private ICFinder icfinder;
+	// the lin similarity from the precomputed WordNet arrays (see WordNetSimilarity), built on first use 
+	private volatile WordNetSimilarity wordNetSimilarity;
 	public Path path;
 	public IDictionary dict;
 	
@@ -112,6 +120,13 @@ public class NLP {
 	
 	public boolean TRACE_SYNONYMS = false;
 	
+	// number of worker threads for the synonym lookup table precomputation; 1 means the sequential computation 
+	public int PARALLELISM = 1;
+	
+	// whether the WordNet dictionary is fully loaded in memory, i.e. immutable and safe to read from several threads. otherwise, the lookups go through 
+	// the file-backed dictionary with its (not thread-safe) item caches, and are serialized on the dictionary 
+	private volatile boolean wordNetInMemory = false;
+	
 	public NLP(){
         WS4JConfiguration.getInstance().setMFS(true);
         
@@ -143,9 +158,11 @@ public class NLP {
       } catch (IOException e) {
       	e.printStackTrace();
       }
-      ICFinder 			icfinder 			=	new ICFinder(icfile);
+      icfinder 			=	new ICFinder(icfile);
       // ....................................................................................................................................................................
       lin = new Lin(dict, icfinder);
+      wordNetSimilarity = null;
+      wordNetInMemory = false;
       // ....................................................................................................................................................................
 	}
 	
@@ -261,6 +278,56 @@ public class NLP {
       return max;
 	}
 
+	// variants of the methods above for the top-left M x N cells of a (larger, reused) score matrix, with a given opt matrix of at least (M+1) x (N+1) for lcs. 
+	// the results are the same as for the M x N matrix, without allocating anything
+	public double fcs(double[][] scoreMatrix, int M){
+		double max = 0;
+		for (int i=0; i<M; i++)
+			max += scoreMatrix[i][i];
+		return max;
+	}
+	
+	public int fcsLength(double[][] scoreMatrix, int M){
+		int max = 0;
+		for (int i=0; i<M; i++)
+			if (scoreMatrix[i][i] > 0) max++;
+		return max;
+	}
+	
+	public double lcs(double[][] scoreMatrix, int M, int N, double[][] opt){
+		for (int i=0; i<=M; i++) opt[i][N] = 0;
+		for (int j=0; j<=N; j++) opt[M][j] = 0;
+		
+		double max = 0;
+		for (int i = M-1; i >= 0; i--) {
+			for (int j = N-1; j >= 0; j--) {
+				if (scoreMatrix[i][j] > 0)
+					opt[i][j] = opt[i+1][j+1] + scoreMatrix[i][j];
+				else 
+					opt[i][j] = Math.max(opt[i+1][j], opt[i][j+1]);
+				max = Math.max(max, opt[i][j]);
+			}
+		}
+		return max;
+	}
+	
+	public int lcsLength(double[][] scoreMatrix, int M, int N, int[][] opt){
+		for (int i=0; i<=M; i++) opt[i][N] = 0;
+		for (int j=0; j<=N; j++) opt[M][j] = 0;
+		
+		int max = 0;
+		for (int i = M-1; i >= 0; i--) {
+			for (int j = N-1; j >= 0; j--) {
+				if (scoreMatrix[i][j] > 0)
+					opt[i][j] = opt[i+1][j+1] + 1;
+				else 
+					opt[i][j] = Math.max(opt[i+1][j], opt[i][j+1]);
+				max = Math.max(max, opt[i][j]);
+			}
+		}
+		return max;
+	}
+
 	// main method for comparing two model element names, each of which are typically compound names with multiple tokens 
 	public double compareMultiword(String word1, String word2, double wordNetTreshold){ //String x, String y
 		//this.NLPOpt.filter(this.NLPOpt.tokeniseIntt(basePair.y))
@@ -411,7 +478,73 @@ public class NLP {
 	// check if word is in wordnet
 	public boolean isWordInWordnet(String word, POS pos){
 		if (word == null || pos == null) return false;
-		return dict.getIndexWord(word, pos) != null;
+		if (wordNetInMemory)
+			return dict.getIndexWord(word, pos) != null;
+		synchronized (dict) {
+			return dict.getIndexWord(word, pos) != null;
+		}
+	}
+	
+	// the WordNet similarity engine, built (once for the dictionary) with the WordNet access serialized
+	private WordNetSimilarity getWordNetSimilarity() {
+		WordNetSimilarity similarity = wordNetSimilarity;
+		if (similarity == null) {
+			synchronized (dict) {
+				if (wordNetSimilarity == null)
+					wordNetSimilarity = new WordNetSimilarity(dict, icfinder);
+				similarity = wordNetSimilarity;
+			}
+		}
+		return similarity;
+	}
+	
+	// lin similarity of the first noun senses of two words, i.e. lin.lin(word1, 1, word2, 1, "n"), see isWordInWordnet for the WordNet access from 
+	// several threads 
+	private double linSimilarity(String word1, String word2) {
+		WordNetSimilarity similarity = getWordNetSimilarity();
+		if (wordNetInMemory)
+			return similarity.lin(word1, word2);
+		synchronized (dict) {
+			return similarity.lin(word1, word2);
+		}
+	}
+	
+	// offsets of the noun synsets which can be the least common subsumer in a non-zero lin similarity with the first noun sense of the word (see 
+	// WordNetSimilarity.getInformativeSubsumers), with the same WordNet access as linSimilarity
+	int[] getInformativeSubsumers(String word) {
+		WordNetSimilarity similarity = getWordNetSimilarity();
+		if (wordNetInMemory)
+			return similarity.getInformativeSubsumers(word);
+		synchronized (dict) {
+			return similarity.getInformativeSubsumers(word);
+		}
+	}
+	
+	// the word as compared in isSynonymExact: without the sense suffix (.n.), in lower case
+	String getComparedWord(String word) {
+		if (word.contains(".n."))
+			word = word.substring(0, word.indexOf('.'));
+		return toLowerCase(word);
+	}
+	
+	double getLevenshteinSimilarityTreshold() {
+		return LevenshteinSimilarityTreshold;
+	}
+	
+	// wait for the WordNet dictionary to be loaded in memory, so that it can be read from several threads without locking. returns false if it cannot be 
+	// loaded, e.g. for a dictionary which is not a RAMDictionary
+	public boolean loadWordNetInMemory() {
+		if (wordNetInMemory)
+			return true;
+		if (dict instanceof IRAMDictionary) {
+			try {
+				((IRAMDictionary) dict).load(true);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			wordNetInMemory = ((IRAMDictionary) dict).isLoaded();
+		}
+		return wordNetInMemory;
 	}
 	
 	// This is the main method for comparing two words using various NLP techniques.
@@ -458,10 +591,8 @@ public class NLP {
 		if (wordNetTreshold > 0.0) {
 			
 						
-			int sense1 = 1, //Integer.parseInt(word1.substring(word1.lastIndexOf('.')+1)),
-					sense2 = 1;//Integer.parseInt(word2.substring(word2.lastIndexOf('.')+1));
 			try{
-				wordnet = lin.lin(lemma1, sense1, lemma2, sense2, "n");
+				wordnet = linSimilarity(lemma1, lemma2);
 				
 			} catch(Exception ex) {
 				wordnet = 0.0;
@@ -523,10 +654,8 @@ public class NLP {
 		if (wordNetTreshold > 0.0) {
 			
 			// begin wordnet				
-			int sense1 = 1, 
-					sense2 = 1;
 			try{
-				wordnet = lin.lin(lemmaLookup.get(lowerCaseWord1), sense1, lemmaLookup.get(lowerCaseWord2), sense2, "n");
+				wordnet = linSimilarity(lemmaLookup.get(lowerCaseWord1), lemmaLookup.get(lowerCaseWord2));
 
 			} catch(Exception ex) {
 				wordnet = 0.0;
@@ -680,49 +809,135 @@ public class NLP {
 		logger.debug("token set size:" + tokenSet.size());
 		logger.debug("starting synonym lookup table computation, this can take a while...");
 		
-		HashMap<Pair<Integer, Integer>, Double> synonymLookup = new HashMap<Pair<Integer, Integer>, Double>();
-		
 		ArrayList<Integer> keys = new ArrayList<Integer>();
 		keys.addAll(tokenLookup.keySet());
 		
+		final HashMap<Integer, String[]> tokens = tokenLookup;
+		final HashMap<String, String> lemmas = lemmaLookup;
+		int bandCount = PARALLELISM <= 1 ? 10 : PARALLELISM * 8;
+		if (PARALLELISM > 1 && !loadWordNetInMemory())
+			logger.info("WordNet is not loaded in memory, the WordNet lookups of the synonym computation are serialized");
+		
+		// the token pairs are scored once (see TokenSimilarityTable), in bands of token rows like the name pairs below, unless there are too many tokens. 
+		// only the candidate pairs which can have a non-zero score are scored (see TokenSimilarityTable.indexCandidates)
+		TokenSimilarityTable tokenSimilarities = null;
+		TokenSimilarityTable newTable = null;
+		if (TokenSimilarityTable.fits(tokenSet.size())) {
+			try {
+				newTable = new TokenSimilarityTable(keys, tokenLookup);
+			} catch (OutOfMemoryError e) {
+				logger.info("not enough memory for the token similarity table (" + tokenSet.size() + " tokens)");
+			}
+		}
+		if (newTable != null) {
+			final TokenSimilarityTable table = newTable;
+			table.indexCandidates(this, synonymThreshold, lemmas);
+			int[] tokenBandStarts = getTriangleBands(table.getTokenCount(), bandCount);
+			runTiles(tokenBandStarts.length - 1, t -> table.fillRows(this, tokenBandStarts[t], tokenBandStarts[t+1], synonymThreshold, lemmas));
+			tokenSimilarities = table;
+		}
+		else
+			logger.info("too many tokens for the token similarity table in the free heap (" + tokenSet.size() + "), the token pairs are scored for each name pair");
+		final TokenSimilarityTable table = tokenSimilarities;
+		
+		// the triangle of name pairs is split into bands of rows with about the same number of pairs. the bands are computed separately (in parallel, 
+		// with PARALLELISM threads) and put in the table in order, i.e. in the same order as the sequential computation 
+		int[] bandStarts = getTriangleBands(keys.size(), bandCount);
+		SynonymTable.Tile[] tiles = new SynonymTable.Tile[bandStarts.length - 1];
+		long pairCount = (long) keys.size() * (keys.size() + 1) / 2;
+		AtomicLong pairsDone = new AtomicLong();
+		runTiles(tiles.length, t -> {
+			tiles[t] = computeSynonymTile(keys, bandStarts[t], bandStarts[t+1], synonymThreshold, tokens, lemmas, table);
+			long done = pairsDone.addAndGet(getTrianglePairCount(keys.size(), bandStarts[t], bandStarts[t+1]));
+			if (!TRACE_SYNONYMS)
+				logger.debug("computing synonyms, tile " + (t+1) + "/" + tiles.length + " done, progress " + (done * 100 / Math.max(1, pairCount)) + "%");
+		});
+		if (table != null)
+			logger.debug("token similarity table for " + table.getTokenCount() + " tokens: " + table.getHits() + " hits, " + table.getMisses() + " misses (candidate pairs scored) out of " 
+					+ table.getPairCount() + " token pairs");
+		
+		SynonymTable synonymLookup = new SynonymTable();
+		for (SynonymTable.Tile tile : tiles)
+			synonymLookup.putAll(tile);
+		
+		String suffix = synonymThreshold>0?"_WNET":"_NOWNET";
+		File synFile = new File(sourceFolder + "/syn" + suffix + ".bin");  
+		synonymLookup.write(synFile);
+	}
+
+
+	// run the tiles 0..tileCount-1: sequentially, or spread over a fork-join pool of PARALLELISM threads
+	private void runTiles(int tileCount, IntConsumer computeTile) throws IOException {
+		if (PARALLELISM <= 1) {
+			for (int t=0; t<tileCount; t++)
+				computeTile.accept(t);
+			return;
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+		try {
+			pool.submit(() -> IntStream.range(0, tileCount).parallel().forEach(computeTile)).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("parallel synonym computation failed", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	// synonym scores of the names in the rows [startRow, endRow) of the triangle, i.e. with the names from startRow on. the token pairs are looked up in the 
+	// token similarity table if given, or scored otherwise
+	private SynonymTable.Tile computeSynonymTile(ArrayList<Integer> keys, int startRow, int endRow, double synonymThreshold, HashMap<Integer, String[]> tokenLookup, HashMap<String, String> lemmaLookup, TokenSimilarityTable tokenSimilarities) {
+		SynonymTable.Tile tile = new SynonymTable.Tile();
 		int size = keys.size();
-		for (int i=0; i<size; i++){
+		for (int i=startRow; i<endRow; i++){
 			Integer word1 = keys.get(i);
-			if (!TRACE_SYNONYMS && (i % (size/10) == 0)) // debug every 10% of the the progress  
-				logger.debug("computing synonyms, progress " + (i / (size/10) * 10) + "%");
 			for (int j=i; j<size; j++) {
 				Integer word2 = keys.get(j);
-				Pair<Integer, Integer> key = new Pair<Integer,Integer>(word1, word2);
-				if (synonymLookup.containsKey(key)/* || synonymLookup.containsKey(reverseKey)*/)
-					;
-				else {
-					double d = compareMultiwordWithTokenLookup(word1, word2, synonymThreshold, tokenLookup, lemmaLookup);
-					if (d>0 && d >= synonymThreshold) { // only because of the wordnet
-						if (TRACE_SYNONYMS) {
-							double d0 = compareMultiwordWithTokenLookup(word1, word2, 0.0, tokenLookup, lemmaLookup);
-							if (!word1.equals(word2) && (! (synonymThreshold > 0) || d != d0))
-								logger.trace(Arrays.toString(tokenLookup.get(word1))
-									+ "\t\t" + Arrays.toString(tokenLookup.get(word2)) + "\t\t" + d);
-						}
-							
-						// TODO control what to do when wordnet returns 1.0 as synonym value
-						synonymLookup.put(key, d);
+				double d = tokenSimilarities != null ? tokenSimilarities.compare(i, j) : compareMultiwordWithTokenLookup(word1, word2, synonymThreshold, tokenLookup, lemmaLookup);
+				if (d>0 && d >= synonymThreshold) { // only because of the wordnet
+					if (TRACE_SYNONYMS) {
+						double d0 = compareMultiwordWithTokenLookup(word1, word2, 0.0, tokenLookup, lemmaLookup);
+						if (!word1.equals(word2) && (! (synonymThreshold > 0) || d != d0))
+							logger.trace(Arrays.toString(tokenLookup.get(word1))
+								+ "\t\t" + Arrays.toString(tokenLookup.get(word2)) + "\t\t" + d);
 					}
+						
+					// TODO control what to do when wordnet returns 1.0 as synonym value
+					tile.add(word1, word2, d);
 				}
 			}
 		}
-		
-		String suffix = synonymThreshold>0?"_WNET":"_NOWNET";
-		File synFile = new File(sourceFolder + "/syn" + suffix + ".ser");  
-		
-		FileOutputStream fis = new FileOutputStream(synFile);  
-		ObjectOutputStream s = new ObjectOutputStream(fis);          
-		s.writeObject(synonymLookup);
-		s.flush();
-		s.close();		
+		return tile;
 	}
-
-
+	
+	// start rows of (at most) bandCount bands of the triangle of size x size pairs (row i has the pairs (i, j) for j >= i), with about the same number of 
+	// pairs in each band. the last element is size
+	private static int[] getTriangleBands(int size, int bandCount) {
+		long pairsPerBand = Math.max(1, ((long) size * (size + 1) / 2 + bandCount - 1) / bandCount);
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		long pairs = 0;
+		for (int i=0; i<size; i++) {
+			pairs += size - i;
+			if (pairs >= pairsPerBand && i+1 < size) {
+				starts.add(i+1);
+				pairs = 0;
+			}
+		}
+		starts.add(size);
+		int[] result = new int[starts.size()];
+		for (int k=0; k<result.length; k++)
+			result[k] = starts.get(k);
+		return result;
+	}
+	
+	private static long getTrianglePairCount(int size, int startRow, int endRow) {
+		long pairs = 0;
+		for (int i=startRow; i<endRow; i++)
+			pairs += size - i;
+		return pairs;
+	}
+	
 	// optional lemmatize string if flags for pre-processing tokenization and lemmatization are on
 	public String lemmatizeIfFlagSet(String base, boolean preToken, boolean preLemma) {
 		String result = lemmatizeIfFlagSet_aux(base, preToken, preLemma);
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.nlp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class stores the precomputed semantic similarity scores of name pairs (by their dictionary indices) symmetrically, i.e. (a, b) and (b, a) are the same entry. 
+ * Only non-zero scores are stored, and a missing pair has score zero. It uses primitive arrays only:
+ * 
+ * - an open-addressing hash table keyed by the packed (min index, max index) pair, with linear probing
+ * - optionally (see compact) a dense triangular array when the dictionary is small enough
+ * 
+ * It is stored in a plain binary file rather than with Java serialization.
+*/ 
+public class SynonymTable {
+	
+	// largest number of cells for the dense triangular array (8 MB of doubles) 
+	public static final int MAX_DENSE_CELLS = 1 << 20;
+	
+	private static final int MAGIC = 0x53594E54; // "SYNT"
+	private static final int VERSION = 1;
+	private static final long EMPTY = -1L;
+	
+	private long[] keys;
+	private double[] values;
+	private int size = 0;
+	
+	// triangular array over the indices below denseSize, or null for the hash table
+	private double[] dense = null;
+	private int denseSize = 0;
+	
+	public interface EntryConsumer {
+		void accept(int index1, int index2, double value);
+	}
+	
+	// entries computed separately (e.g. by a worker thread for a part of the pairs) in primitive arrays, in the order they are added, to be put in a table later 
+	public static class Tile {
+		private int[] indices1 = new int[16];
+		private int[] indices2 = new int[16];
+		private double[] values = new double[16];
+		private int size = 0;
+		
+		public void add(int index1, int index2, double value) {
+			if (size == values.length) {
+				indices1 = Arrays.copyOf(indices1, size * 2);
+				indices2 = Arrays.copyOf(indices2, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			indices1[size] = index1;
+			indices2[size] = index2;
+			values[size] = value;
+			size++;
+		}
+		
+		public int size() {
+			return size;
+		}
+	}
+	
+	public SynonymTable() {
+		this(16);
+	}
+	
+	public SynonymTable(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) capacity <<= 1;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+	}
+	
+	private static long pack(int index1, int index2) {
+		int min = Math.min(index1, index2), max = Math.max(index1, index2);
+		return ((long) min << 32) | max;
+	}
+	
+	private static int hash(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+	
+	private static int triangularIndex(int index1, int index2) {
+		int min = Math.min(index1, index2), max = Math.max(index1, index2);
+		return (int) ((long) max * (max + 1) / 2) + min;
+	}
+	
+	// score of the pair in either order, zero if not stored (e.g. below the threshold it was computed with)
+	public double get(int index1, int index2) {
+		if (dense != null) {
+			if (index1 < 0 || index2 < 0 || index1 >= denseSize || index2 >= denseSize) return 0.0;
+			return dense[triangularIndex(index1, index2)];
+		}
+		if (index1 < 0 || index2 < 0) return 0.0;
+		long key = pack(index1, index2);
+		int mask = keys.length - 1;
+		for (int slot = hash(key, mask); ; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) return values[slot];
+			if (keys[slot] == EMPTY) return 0.0;
+		}
+	}
+	
+	public boolean contains(int index1, int index2) {
+		return get(index1, index2) != 0.0;
+	}
+	
+	// store a (non-negative) score for the pair in either order; zero scores are not stored
+	public void put(int index1, int index2, double value) {
+		if (index1 < 0 || index2 < 0) 
+			throw new IllegalArgumentException("negative dictionary index: " + index1 + ", " + index2);
+		if (value == 0.0) return;
+		if (dense != null) expand();
+		
+		if ((size + 1) * 2 > keys.length) rehash(keys.length * 2);
+		long key = pack(index1, index2);
+		int mask = keys.length - 1;
+		int slot = hash(key, mask);
+		while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & mask;
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+	
+	// put the entries of the tile, in the order they were added
+	public void putAll(Tile tile) {
+		for (int k=0; k<tile.size; k++)
+			put(tile.indices1[k], tile.indices2[k], tile.values[k]);
+	}
+	
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+		int mask = capacity - 1;
+		for (int k=0; k<oldKeys.length; k++)
+			if (oldKeys[k] != EMPTY) {
+				int slot = hash(oldKeys[k], mask);
+				while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[k];
+				values[slot] = oldValues[k];
+			}
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	// switch to the dense triangular array if all the indices are below dictionarySize and it fits in MAX_DENSE_CELLS 
+	public void compact(int dictionarySize) {
+		if (dense != null || (long) dictionarySize * (dictionarySize + 1) / 2 > MAX_DENSE_CELLS) return;
+		for (long key : keys)
+			if (key != EMPTY && (int) key >= dictionarySize) return;
+		
+		double[] triangle = new double[(int) ((long) dictionarySize * (dictionarySize + 1) / 2)];
+		for (int k=0; k<keys.length; k++)
+			if (keys[k] != EMPTY) triangle[triangularIndex((int) (keys[k] >>> 32), (int) keys[k])] = values[k];
+		dense = triangle;
+		denseSize = dictionarySize;
+		keys = null;
+		values = null;
+	}
+	
+	// back from the dense array to the hash table, e.g. for adding more entries
+	private void expand() {
+		double[] triangle = dense;
+		int n = denseSize;
+		dense = null;
+		denseSize = 0;
+		keys = new long[16];
+		Arrays.fill(keys, EMPTY);
+		values = new double[16];
+		size = 0;
+		for (int max=0; max<n; max++)
+			for (int min=0; min<=max; min++)
+				if (triangle[triangularIndex(min, max)] != 0.0) put(min, max, triangle[triangularIndex(min, max)]);
+	}
+	
+	// visit each stored pair once, with index1 <= index2
+	public void forEach(EntryConsumer consumer) {
+		if (dense != null) {
+			for (int max=0; max<denseSize; max++)
+				for (int min=0; min<=max; min++) {
+					double value = dense[triangularIndex(min, max)];
+					if (value != 0.0) consumer.accept(min, max, value);
+				}
+			return;
+		}
+		for (int k=0; k<keys.length; k++)
+			if (keys[k] != EMPTY) consumer.accept((int) (keys[k] >>> 32), (int) keys[k], values[k]);
+	}
+	
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size());
+			forEach((index1, index2, value) -> {
+				try {
+					out.writeInt(index1);
+					out.writeInt(index2);
+					out.writeDouble(value);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			out.close();
+		}
+	}
+	
+	public static SynonymTable read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("not a synonym table: " + file);
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException("unsupported synonym table version " + version + ": " + file);
+			int count = in.readInt();
+			SynonymTable table = new SynonymTable(count);
+			for (int k=0; k<count; k++) {
+				int index1 = in.readInt(), index2 = in.readInt();
+				table.put(index1, index2, in.readDouble());
+			}
+			return table;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.nlp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.mit.jwi.item.POS;
+
+/**
+ * This class memoizes the token x token similarity scores (see NLP.isSynonymExact with the lemma lookup) for the names of a token lookup table, for one 
+ * WordNet threshold. The tokens get ids in the order they first appear, the names are encoded as arrays of token ids, and the scores are kept in a 
+ * triangular array, as the token score is symmetric. A name pair is then scored from the table as in NLP.compareMultiwordWithTokenLookup, i.e. the 
+ * sum of the best token score for each token of the first name, over the larger token count. 
+ * 
+ * The scores are computed for the rows of the triangle (fillRows), each row by one thread, before any name comparison. Hits (token pairs looked up by 
+ * name comparisons) and misses (token pairs scored) are counted. 
+ * 
+ * With indexCandidates, only the token pairs which can have a non-zero score are scored, the others are left at 0. The candidates of a token are 
+ * found in inverted lists: of the tokens with the same compared word, stem and lemma, of the tokens with a length in the Levenshtein band, and of the 
+ * tokens sharing a WordNet subsumer with a non-zero information content (i.e. a possible least common subsumer in a non-zero lin similarity). 
+*/
+public class TokenSimilarityTable {
+	
+	// largest number of cells for the triangular array (1 GB of doubles), and the part of the free heap it may take (see fits) 
+	public static final long MAX_CELLS = 1L << 27;
+	public static final double MAX_HEAP_SHARE = 0.5;
+	
+	private final String[] tokens;
+	private final int[][] names;
+	private final double[] scores;
+	
+	// candidates (see indexCandidates): the group ids of each token, the tokens of each group, the token lengths, the tokens by length (all of them and 
+	// the ones not in WordNet) 
+	private int[][] tokenGroups;
+	private int[][] groupTokens;
+	private int[] lengths;
+	private boolean[] inWordNet;
+	private int[][] tokensByLength;
+	private int[][] nonWordNetTokensByLength;
+	private double levenshteinThreshold;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	// for the names in the given order (e.g. the keys of the token lookup table) 
+	public TokenSimilarityTable(ArrayList<Integer> nameKeys, HashMap<Integer, String[]> tokenLookup) {
+		HashMap<String, Integer> tokenIds = new HashMap<String, Integer>();
+		ArrayList<String> tokenList = new ArrayList<String>();
+		names = new int[nameKeys.size()][];
+		for (int n=0; n<names.length; n++) {
+			String[] nameTokens = tokenLookup.get(nameKeys.get(n));
+			names[n] = new int[nameTokens.length];
+			for (int k=0; k<nameTokens.length; k++) {
+				Integer id = tokenIds.get(nameTokens[k]);
+				if (id == null) {
+					id = tokenList.size();
+					tokenIds.put(nameTokens[k], id);
+					tokenList.add(nameTokens[k]);
+				}
+				names[n][k] = id;
+			}
+		}
+		tokens = tokenList.toArray(new String[tokenList.size()]);
+		if (getCellCount(tokens.length) > MAX_CELLS)
+			throw new IllegalArgumentException("too many tokens for the token similarity table: " + tokens.length);
+		scores = new double[(int) getCellCount(tokens.length)];
+	}
+	
+	// whether the table can be built for the given number of distinct tokens: the triangular array is allocated up front, so it has to fit in 
+	// MAX_HEAP_SHARE of the heap which is still free (up to MAX_CELLS) 
+	public static boolean fits(int tokenCount) {
+		Runtime runtime = Runtime.getRuntime();
+		long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return getCellCount(tokenCount) <= Math.min(MAX_CELLS, (long) (freeHeap * MAX_HEAP_SHARE) / Double.BYTES);
+	}
+	
+	private static long getCellCount(int tokenCount) {
+		return (long) tokenCount * (tokenCount + 1) / 2;
+	}
+	
+	private static int triangularIndex(int id1, int id2) {
+		int min = Math.min(id1, id2), max = Math.max(id1, id2);
+		return (int) ((long) max * (max + 1) / 2) + min;
+	}
+	
+	public int getTokenCount() {
+		return tokens.length;
+	}
+	
+	public long getPairCount() {
+		return getCellCount(tokens.length);
+	}
+	
+	// index the tokens so that fillRows only scores the pairs which can have a non-zero score in NLP.isSynonymExact, i.e. with the same compared word 
+	// (1.0), stem or lemma (0.9), with a normalized Levenshtein distance within the threshold unless both lemmas are in WordNet, or, for a positive 
+	// WordNet threshold, with a non-zero lin similarity. the Levenshtein distance is at least the length difference, so the lengths are compared. 
+	// a lin similarity below the threshold is kept as the score, so any pair with a common informative subsumer is a candidate.
+	public void indexCandidates(NLP nlp, double wordNetThreshold, HashMap<String, String> lemmaLookup) {
+		HashMap<String, Integer> groupIds = new HashMap<String, Integer>();
+		ArrayList<ArrayList<Integer>> groups = new ArrayList<ArrayList<Integer>>();
+		tokenGroups = new int[tokens.length][];
+		lengths = new int[tokens.length];
+		inWordNet = new boolean[tokens.length];
+		int maxLength = 0;
+		for (int t=0; t<tokens.length; t++) {
+			String word = nlp.getComparedWord(tokens[t]);
+			String lemma = lemmaLookup.get(word);
+			ArrayList<String> keys = new ArrayList<String>();
+			keys.add("w:" + word);
+			keys.add("s:" + nlp.stem(word));
+			if (lemma != null)
+				keys.add("l:" + lemma);
+			if (wordNetThreshold > 0.0) {
+				int[] subsumers;
+				try {
+					subsumers = nlp.getInformativeSubsumers(lemma);
+				} catch (Exception ex) {
+					subsumers = new int[0];
+				}
+				for (int offset : subsumers)
+					keys.add("n:" + offset);
+			}
+			tokenGroups[t] = new int[keys.size()];
+			for (int k=0; k<keys.size(); k++) {
+				Integer id = groupIds.get(keys.get(k));
+				if (id == null) {
+					id = groups.size();
+					groupIds.put(keys.get(k), id);
+					groups.add(new ArrayList<Integer>());
+				}
+				groups.get(id).add(t);
+				tokenGroups[t][k] = id;
+			}
+			lengths[t] = word.length();
+			inWordNet[t] = nlp.isWordInWordnet(lemma, POS.NOUN);
+			maxLength = Math.max(maxLength, lengths[t]);
+		}
+		groupTokens = new int[groups.size()][];
+		for (int g=0; g<groupTokens.length; g++)
+			groupTokens[g] = toArray(groups.get(g));
+		
+		ArrayList<ArrayList<Integer>> byLength = new ArrayList<ArrayList<Integer>>(), nonWordNetByLength = new ArrayList<ArrayList<Integer>>();
+		for (int l=0; l<=maxLength; l++) {
+			byLength.add(new ArrayList<Integer>());
+			nonWordNetByLength.add(new ArrayList<Integer>());
+		}
+		for (int t=0; t<tokens.length; t++) {
+			byLength.get(lengths[t]).add(t);
+			if (!inWordNet[t])
+				nonWordNetByLength.get(lengths[t]).add(t);
+		}
+		tokensByLength = new int[maxLength + 1][];
+		nonWordNetTokensByLength = new int[maxLength + 1][];
+		for (int l=0; l<=maxLength; l++) {
+			tokensByLength[l] = toArray(byLength.get(l));
+			nonWordNetTokensByLength[l] = toArray(nonWordNetByLength.get(l));
+		}
+		levenshteinThreshold = nlp.getLevenshteinSimilarityTreshold();
+	}
+	
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i=0; i<array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	// collect the candidates j >= i of token i in row, using the stamps (i+1 for token i) to skip duplicates. returns the number of candidates
+	private int collectCandidates(int i, int[] stamps, int[] row) {
+		int count = 0;
+		for (int g : tokenGroups[i])
+			for (int j : groupTokens[g])
+				if (j >= i && stamps[j] != i + 1) {
+					stamps[j] = i + 1;
+					row[count++] = j;
+				}
+		// the same computation as the normalized Levenshtein distance with the length difference as the distance 
+		int[][] byLength = inWordNet[i] ? nonWordNetTokensByLength : tokensByLength;
+		for (int l=0; l<byLength.length; l++) {
+			if (!((1.0 * Math.abs(lengths[i] - l)) / Math.max(lengths[i], l) <= levenshteinThreshold))
+				continue;
+			for (int j : byLength[l])
+				if (j >= i && stamps[j] != i + 1) {
+					stamps[j] = i + 1;
+					row[count++] = j;
+				}
+		}
+		return count;
+	}
+	
+	// score the token pairs (i, j) for j >= i, for the token ids i in [startRow, endRow); only the candidate pairs if the candidates are indexed
+	public void fillRows(NLP nlp, int startRow, int endRow, double wordNetThreshold, HashMap<String, String> lemmaLookup) {
+		if (tokenGroups == null) {
+			for (int i=startRow; i<endRow; i++) {
+				for (int j=i; j<tokens.length; j++)
+					scores[triangularIndex(i, j)] = nlp.isSynonymExact(tokens[i], tokens[j], wordNetThreshold, lemmaLookup);
+				misses.add(tokens.length - i);
+			}
+			return;
+		}
+		int[] stamps = new int[tokens.length];
+		int[] row = new int[tokens.length];
+		for (int i=startRow; i<endRow; i++) {
+			int count = collectCandidates(i, stamps, row);
+			for (int k=0; k<count; k++)
+				scores[triangularIndex(i, row[k])] = nlp.isSynonymExact(tokens[i], tokens[row[k]], wordNetThreshold, lemmaLookup);
+			misses.add(count);
+		}
+	}
+	
+	// score of the names at the given positions, after all the rows are filled 
+	public double compare(int name1, int name2) {
+		int[] tokens1 = names[name1], tokens2 = names[name2];
+		double sum = 0.0;
+		for (int i=0; i<tokens1.length; i++){
+			double tempMax = 0;
+			for (int j=0; j<tokens2.length; j++) {
+				double score = scores[triangularIndex(tokens1[i], tokens2[j])];
+				if (score > 0)
+					tempMax = Math.max(tempMax, score);
+			}
+			if (tempMax > 0)
+				sum += tempMax;
+		}
+		hits.add((long) tokens1.length * tokens2.length);
+		return sum / (1.0 * Math.max(tokens1.length, tokens2.length));
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+}
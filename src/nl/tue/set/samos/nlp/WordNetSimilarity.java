@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.nlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.ISynset;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.item.Pointer;
+
+/**
+ * This class computes the lin similarity of the first noun senses of two words (see Lin.lin(w1, 1, w2, 1, "n")) from precomputed arrays instead of 
+ * hypernym sets and string keyed information content lookups. For each noun synset of the dictionary, the offsets of the synset and its (instance) 
+ * hypernyms, i.e. the candidate least common subsumers in Lin.getLCS, are kept as a sorted int array, with their information content values in a 
+ * parallel array. The least common subsumer of two synsets is found by merging their arrays, the lin scores of synset pairs are memoized in a bounded 
+ * direct-mapped cache. 
+ * 
+ * The arrays are built once, in the constructor; the dictionary is then only used to look up the words. 
+*/
+public class WordNetSimilarity {
+	
+	// number of entries in the lin score cache, and of locks for the cache entries
+	public static final int CACHE_SIZE = 1 << 16;
+	private static final int CACHE_LOCKS = 64;
+	
+	private final IDictionary dict;
+	
+	// noun synset offsets in ascending order; the arrays below are indexed by the position of the synset in it
+	private final int[] offsets;
+	private final double[] ics;
+	private final int[][] ancestors;
+	private final double[][] ancestorIcs;
+	
+	// cache of the lin scores, keyed by the synset indices (smaller first) + 1; 0 is an empty entry
+	private final long[] cacheKeys = new long[CACHE_SIZE];
+	private final double[] cacheScores = new double[CACHE_SIZE];
+	private final Object[] cacheLocks = new Object[CACHE_LOCKS];
+	
+	public WordNetSimilarity(IDictionary dict, ICFinder icfinder) {
+		this.dict = dict;
+		ArrayList<ISynset> synsets = new ArrayList<ISynset>();
+		Iterator<ISynset> iterator = dict.getSynsetIterator(POS.NOUN);
+		while (iterator.hasNext())
+			synsets.add(iterator.next());
+		synsets.sort((s1, s2) -> Integer.compare(s1.getOffset(), s2.getOffset()));
+		
+		offsets = new int[synsets.size()];
+		ics = new double[synsets.size()];
+		for (int i=0; i<offsets.length; i++) {
+			offsets[i] = synsets.get(i).getOffset();
+			ics[i] = icfinder.getIC(offsets[i], "n");
+		}
+		ancestors = new int[offsets.length][];
+		for (int i=0; i<offsets.length; i++)
+			computeAncestors(i, synsets);
+		ancestorIcs = new double[offsets.length][];
+		for (int i=0; i<offsets.length; i++) {
+			ancestorIcs[i] = new double[ancestors[i].length];
+			for (int k=0; k<ancestors[i].length; k++) {
+				int index = Arrays.binarySearch(offsets, ancestors[i][k]);
+				ancestorIcs[i][k] = index >= 0 ? ics[index] : icfinder.getIC(ancestors[i][k], "n");
+			}
+		}
+		for (int l=0; l<CACHE_LOCKS; l++)
+			cacheLocks[l] = new Object();
+	}
+	
+	// the sorted offsets of the synset and of its hypernyms and instance hypernyms, transitively (as in Lin.getHypernyms), from the ones of the 
+	// direct hypernyms. a synset on a hypernym cycle sees the synsets which are being computed as having no ancestors
+	private int[] computeAncestors(int index, List<ISynset> synsets) {
+		if (ancestors[index] != null)
+			return ancestors[index];
+		ancestors[index] = new int[] {offsets[index]};
+		ISynset synset = synsets.get(index);
+		List<ISynsetID> hypernyms = new ArrayList<ISynsetID>(synset.getRelatedSynsets(Pointer.HYPERNYM));
+		hypernyms.addAll(synset.getRelatedSynsets(Pointer.HYPERNYM_INSTANCE));
+		int[] result = ancestors[index];
+		for (ISynsetID hypernym : hypernyms) {
+			int hypernymIndex = Arrays.binarySearch(offsets, hypernym.getOffset());
+			int[] hypernymAncestors = hypernymIndex >= 0 ? computeAncestors(hypernymIndex, synsets) : new int[] {hypernym.getOffset()};
+			result = union(result, hypernymAncestors);
+		}
+		ancestors[index] = result;
+		return result;
+	}
+	
+	private static int[] union(int[] sorted1, int[] sorted2) {
+		int[] union = new int[sorted1.length + sorted2.length];
+		int i = 0, j = 0, count = 0;
+		while (i < sorted1.length || j < sorted2.length) {
+			if (j == sorted2.length || (i < sorted1.length && sorted1[i] < sorted2[j]))
+				union[count++] = sorted1[i++];
+			else if (i == sorted1.length || sorted2[j] < sorted1[i])
+				union[count++] = sorted2[j++];
+			else {
+				union[count++] = sorted1[i++];
+				j++;
+			}
+		}
+		return count == union.length ? union : Arrays.copyOf(union, count);
+	}
+	
+	// index of the synset of the first noun sense of the word, -1 if the word is not a noun in WordNet
+	private int getFirstNounSense(String word) {
+		IIndexWord indexWord = dict.getIndexWord(word, POS.NOUN);
+		if (indexWord == null)
+			return -1;
+		return Arrays.binarySearch(offsets, indexWord.getWordIDs().get(0).getSynsetID().getOffset());
+	}
+	
+	// lin similarity of the first noun senses of the two words, equal to Lin.lin(word1, 1, word2, 1, "n")
+	public double lin(String word1, String word2) {
+		int synset1 = getFirstNounSense(word1), synset2 = getFirstNounSense(word2);
+		if (synset1 < 0 || synset2 < 0)
+			return 0.0;
+		return lin(synset1, synset2);
+	}
+	
+	private double lin(int synset1, int synset2) {
+		if (ics[synset1] == 0.0 || ics[synset2] == 0.0)
+			return 0.0;
+		long key = (long) Math.min(synset1, synset2) * offsets.length + Math.max(synset1, synset2) + 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 48) & (CACHE_SIZE - 1);
+		Object lock = cacheLocks[slot & (CACHE_LOCKS - 1)];
+		synchronized (lock) {
+			if (cacheKeys[slot] == key)
+				return cacheScores[slot];
+		}
+		double score = (2.0 * getLCSInformationContent(synset1, synset2)) / (ics[synset1] + ics[synset2]);
+		synchronized (lock) {
+			cacheKeys[slot] = key;
+			cacheScores[slot] = score;
+		}
+		return score;
+	}
+	
+	// the information content of the least common subsumer of the synsets, i.e. the highest one among their common ancestors; 0 (the 'fake' root) 
+	// without any common ancestor
+	private double getLCSInformationContent(int synset1, int synset2) {
+		int[] ancestors1 = ancestors[synset1], ancestors2 = ancestors[synset2];
+		double[] ics1 = ancestorIcs[synset1];
+		double max = -Double.MAX_VALUE;
+		boolean found = false;
+		int i = 0, j = 0;
+		while (i < ancestors1.length && j < ancestors2.length) {
+			if (ancestors1[i] < ancestors2[j])
+				i++;
+			else if (ancestors1[i] > ancestors2[j])
+				j++;
+			else {
+				if (ics1[i] > max)
+					max = ics1[i];
+				found = true;
+				i++;
+				j++;
+			}
+		}
+		return found ? max : 0.0;
+	}
+	
+	// offsets of the ancestors of the first noun sense of the word with a non-zero information content, i.e. the possible least common subsumers in a 
+	// non-zero lin similarity with another word; empty if the lin similarity of the word is always 0 (not in WordNet, zero information content) 
+	public int[] getInformativeSubsumers(String word) {
+		int synset = word == null ? -1 : getFirstNounSense(word);
+		if (synset < 0 || ics[synset] == 0.0)
+			return new int[0];
+		int count = 0;
+		int[] subsumers = new int[ancestors[synset].length];
+		for (int k=0; k<subsumers.length; k++)
+			if (ancestorIcs[synset][k] != 0.0)
+				subsumers[count++] = ancestors[synset][k];
+		return Arrays.copyOf(subsumers, count);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.vsm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.tue.set.samos.common.Constants;
+import nl.tue.set.samos.common.enums.STRUCTURE;
+import nl.tue.set.samos.feature.Feature;
+import nl.tue.set.samos.feature.parser.JSONParser;
+import nl.tue.set.samos.feature.parser.PlainTextParser;
+
+/**
+ * This class holds the parsed features of a folder of feature files, i.e. the rows and the vocabulary (columns) of a vsm. 
+ * It only depends on the structure of the features, so it can be shared among the vsm computations with different parameters on the same folder. 
+*/ 
+public class FeatureCorpus {
+	
+	static final Logger logger = LoggerFactory.getLogger(FeatureCorpus.class);
+	
+	public final STRUCTURE structure;
+	
+	// per model: name, hash of its feature file and its features 
+	public final ArrayList<String> modelNames = new ArrayList<String>();
+	public final ArrayList<String> modelHashes = new ArrayList<String>();
+	public final ArrayList<ArrayList<Feature>> features = new ArrayList<ArrayList<Feature>>();
+	
+	// the maximal feature set (i.e. all features in all files), the column index of each feature and the line it is parsed from 
+	public final LinkedHashSet<Feature> vocabulary = new LinkedHashSet<Feature>();
+	public final HashMap<Feature, Integer> vocabularyIndexMap = new HashMap<Feature, Integer>();
+	public final ArrayList<String> vocabularyLines = new ArrayList<String>();
+	
+	public FeatureCorpus(STRUCTURE structure) {
+		this.structure = structure;
+	}
+	
+	public Feature parseFeature(String s) {
+		if (structure == STRUCTURE.NTREE)
+			return JSONParser.parseText(s);
+		else
+			return PlainTextParser.parseText(s);
+	}
+	
+	// read and parse all the feature files in the folder
+	public static FeatureCorpus read(String featureFolder, STRUCTURE structure) {
+		FeatureCorpus corpus = new FeatureCorpus(structure);
+		
+		File dir = new File(featureFolder);
+		File[] ngramFiles = dir.listFiles(new FilenameFilter() { 
+	         public boolean accept(File dir, String filename)
+	              { return filename.endsWith(Constants.featureFileSuffix); }
+   	} );
+		
+		// process each feature file
+		for(File uf : ngramFiles)
+		{
+			logger.info("vsm processing model feature file " + uf.getName());
+			try {				
+				// add model name
+				corpus.modelNames.add(uf.getName().replaceFirst(Constants.featureFileSuffix, ""));
+				corpus.modelHashes.add("");
+				MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				
+				BufferedReader br = new BufferedReader(new FileReader(uf));
+				
+				ArrayList<Feature> features = new ArrayList<Feature>();
+				String s = null;
+				
+				// process all the features per feature file
+				while((s = br.readLine()) != null) {
+					digest.update((s + "\n").getBytes(StandardCharsets.UTF_8));
+					Feature f = corpus.parseFeature(s);
+					 
+					if (f == null){
+						logger.error("ERROR: parsed null feature: " + f);
+					} else {
+						features.add(f);
+						if (!corpus.vocabularyIndexMap.containsKey(f)) // construct a maximal feature set (i.e. all features in all files)
+						{
+							corpus.vocabularyIndexMap.put(f, corpus.vocabulary.size());
+							corpus.vocabulary.add(f);
+							corpus.vocabularyLines.add(s);
+						}
+					}
+				}
+				
+				corpus.features.add(features);
+				corpus.modelHashes.set(corpus.modelHashes.size()-1, new BigInteger(1, digest.digest()).toString(16));
+								
+				// clean up
+				br.close();
+				
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (NoSuchAlgorithmException e) {
+				e.printStackTrace();
+			} 
+		}
+		
+		logger.info("Total unique feature count:" + corpus.vocabulary.size());
+		return corpus;
+	}
+}
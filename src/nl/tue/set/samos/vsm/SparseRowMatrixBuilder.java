@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.vsm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.ujmp.core.Matrix;
+import org.ujmp.core.SparseMatrix;
+
+import nl.tue.set.samos.common.enums.FREQ;
+
+/**
+ * This class accumulates the raw vector space model in compressed sparse row (CSR) form, using primitive arrays only. Each row is first accumulated in a dense
+ * double[] buffer (sum or max of the comparison scores, see FREQ), and then compressed into column index and value arrays. The rows can be filled in any order 
+ * and by different threads (one RowAccumulator per thread); the result is turned into a UJMP matrix only at the end.
+*/ 
+public class SparseRowMatrixBuilder {
+	
+	public final int rowCount, columnCount;
+	public final FREQ _FREQ;
+	
+	// compressed rows: sorted column indices and the corresponding (non-zero) values
+	private final int[][] rowColumns;
+	private final double[][] rowValues;
+	
+	// optional sparsification of the accumulated rows: scores below epsilon are not added, and only the topK largest cells of each row are kept (0 for all)
+	private int topK = 0;
+	private double epsilon = 0.0;
+	
+	// accumulators handed out, for collecting their document frequencies
+	private final ArrayList<RowAccumulator> accumulators = new ArrayList<RowAccumulator>();
+	
+	public SparseRowMatrixBuilder(int rowCount, int columnCount, FREQ _FREQ){
+		this.rowCount = rowCount;
+		this.columnCount = columnCount;
+		this._FREQ = _FREQ;
+		rowColumns = new int[rowCount][];
+		rowValues = new double[rowCount][];
+	}
+	
+	// a fresh row buffer, to be used by a single thread
+	public RowAccumulator newRowAccumulator(){
+		RowAccumulator accumulator = new RowAccumulator();
+		synchronized (accumulators) {
+			accumulators.add(accumulator);
+		}
+		return accumulator;
+	}
+	
+	// to be set before the rows are accumulated
+	public void setSparsification(int topK, double epsilon){
+		this.topK = topK;
+		this.epsilon = epsilon;
+	}
+	
+	// sum of all the scores accumulated in the rows (including the ones dropped by the sparsification)
+	public double getTotalMass(){
+		double mass = 0;
+		synchronized (accumulators) {
+			for (RowAccumulator accumulator : accumulators)
+				mass += accumulator.totalMass;
+		}
+		return mass;
+	}
+	
+	// sum of the values kept in the flushed rows. the ratio to the total mass is exact for FREQ_SUM, and a lower bound for FREQ_MAX
+	public double getRetainedMass(){
+		double mass = 0;
+		synchronized (accumulators) {
+			for (RowAccumulator accumulator : accumulators)
+				mass += accumulator.retainedMass;
+		}
+		return mass;
+	}
+	
+	// number of rows with a positive value per column, tracked while flushing the rows (rows set directly are not counted) 
+	public int[] getDocumentFrequencies(){
+		int[] documentFrequencies = new int[columnCount];
+		synchronized (accumulators) {
+			for (RowAccumulator accumulator : accumulators)
+				for (int column=0; column<columnCount; column++)
+					documentFrequencies[column] += accumulator.documentFrequencies[column];
+		}
+		return documentFrequencies;
+	}
+	
+	// scale the non-zero values per column: first with the weights, then with the idf (each may be null), removing the values that become zero
+	public void scaleColumns(double[] weights, double[] idfs){
+		for (int row=0; row<rowCount; row++)
+		{
+			if (rowColumns[row] == null) continue;
+			int[] columns = rowColumns[row];
+			double[] values = rowValues[row];
+			int next = 0;
+			for (int k=0; k<columns.length; k++)
+			{
+				double value = values[k];
+				if (weights != null) value = value * weights[columns[k]];
+				if (idfs != null) value = value * idfs[columns[k]];
+				if (value != 0) {
+					columns[next] = columns[k];
+					values[next] = value;
+					next++;
+				}
+			}
+			if (next < columns.length) {
+				rowColumns[row] = Arrays.copyOf(columns, next);
+				rowValues[row] = Arrays.copyOf(values, next);
+			}
+		}
+	}
+	
+	public int[] getRowColumns(int row){
+		return rowColumns[row] == null ? new int[0] : rowColumns[row];
+	}
+	
+	public double[] getRowValues(int row){
+		return rowValues[row] == null ? new double[0] : rowValues[row];
+	}
+	
+	public long getNonZeroCount(){
+		long count = 0;
+		for (int[] columns : rowColumns)
+			if (columns != null) count += columns.length;
+		return count;
+	}
+	
+	// for a square matrix filled only for column >= row among the mirrored rows/columns: copy those entries to the lower triangle
+	public void symmetrize(boolean[] mirrored){
+		// count and collect the transposed entries per target row, coming in increasing (source) row order
+		int[] counts = new int[rowCount];
+		for (int row=0; row<rowCount; row++)
+		{
+			if (!mirrored[row] || rowColumns[row] == null) continue;
+			for (int column : rowColumns[row])
+				if (column > row && mirrored[column]) counts[column]++;
+		}
+		
+		int[][] transposedColumns = new int[rowCount][];
+		double[][] transposedValues = new double[rowCount][];
+		for (int row=0; row<rowCount; row++)
+		{
+			transposedColumns[row] = new int[counts[row]];
+			transposedValues[row] = new double[counts[row]];
+			counts[row] = 0;
+		}
+		for (int row=0; row<rowCount; row++)
+		{
+			if (!mirrored[row] || rowColumns[row] == null) continue;
+			int[] columns = rowColumns[row];
+			for (int k=0; k<columns.length; k++)
+				if (columns[k] > row && mirrored[columns[k]]) {
+					int target = columns[k];
+					transposedColumns[target][counts[target]] = row;
+					transposedValues[target][counts[target]] = rowValues[row][k];
+					counts[target]++;
+				}
+		}
+		
+		// merge with the existing entries (disjoint columns)
+		for (int row=0; row<rowCount; row++)
+		{
+			if (transposedColumns[row].length == 0) continue;
+			int[] columns = getRowColumns(row), extraColumns = transposedColumns[row];
+			double[] values = getRowValues(row), extraValues = transposedValues[row];
+			int[] mergedColumns = new int[columns.length + extraColumns.length];
+			double[] mergedValues = new double[mergedColumns.length];
+			int a = 0, b = 0;
+			for (int k=0; k<mergedColumns.length; k++)
+			{
+				if (b == extraColumns.length || (a < columns.length && columns[a] < extraColumns[b])) {
+					mergedColumns[k] = columns[a];
+					mergedValues[k] = values[a++];
+				} else {
+					mergedColumns[k] = extraColumns[b];
+					mergedValues[k] = extraValues[b++];
+				}
+			}
+			rowColumns[row] = mergedColumns;
+			rowValues[row] = mergedValues;
+		}
+	}
+	
+	// set a whole row directly, with sorted column indices 
+	public void setRow(int row, int[] columns, double[] values){
+		rowColumns[row] = columns;
+		rowValues[row] = values;
+	}
+	
+	// compressed copy of a UJMP (sparse) matrix 
+	public static SparseRowMatrixBuilder fromMatrix(Matrix matrix){
+		int rowCount = (int) matrix.getRowCount(), columnCount = (int) matrix.getColumnCount();
+		SparseRowMatrixBuilder builder = new SparseRowMatrixBuilder(rowCount, columnCount, FREQ.FREQ_SUM);
+		
+		int[] counts = new int[rowCount];
+		for (long[] coordinates : matrix.availableCoordinates())
+			counts[(int) coordinates[0]]++;
+		long[][] rowEntries = new long[rowCount][];
+		for (int row=0; row<rowCount; row++)
+			rowEntries[row] = new long[counts[row]];
+		Arrays.fill(counts, 0);
+		for (long[] coordinates : matrix.availableCoordinates())
+			rowEntries[(int) coordinates[0]][counts[(int) coordinates[0]]++] = coordinates[1];
+		
+		SparseRowMatrixBuilder.RowAccumulator row = builder.newRowAccumulator();
+		for (int rowNr=0; rowNr<rowCount; rowNr++)
+		{
+			for (long column : rowEntries[rowNr])
+				row.add((int) column, matrix.getAsDouble(rowNr, column));
+			row.flushTo(rowNr);
+		}
+		return builder;
+	}
+	
+	// sink into a UJMP sparse matrix
+	public Matrix toMatrix(){
+		Matrix matrix = SparseMatrix.Factory.zeros(rowCount, columnCount);
+		for (int row=0; row<rowCount; row++)
+		{
+			if (rowColumns[row] == null) continue;
+			int[] columns = rowColumns[row];
+			double[] values = rowValues[row];
+			for (int k=0; k<columns.length; k++)
+				matrix.setAsDouble(values[k], row, columns[k]);
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Dense buffer for a single row. Only the touched columns are tracked, so that compressing and resetting the buffer does not scan the whole vocabulary.
+	 */
+	public class RowAccumulator {
+		
+		private final double[] buffer = new double[columnCount];
+		private final boolean[] touched = new boolean[columnCount];
+		private int[] touchedColumns = new int[16];
+		private int touchedCount = 0;
+		private final int[] documentFrequencies = new int[columnCount];
+		private double totalMass = 0, retainedMass = 0;
+		
+		// add a (non-negative) score to a cell, as sum or max depending on FREQ
+		public void add(int column, double value){
+			// adding or max'ing a zero never changes a non-negative cell
+			if (value == 0) return;
+			
+			if (value < epsilon) {
+				totalMass += value;
+				return;
+			}
+			
+			if (!touched[column])
+			{
+				touched[column] = true;
+				if (touchedCount == touchedColumns.length)
+					touchedColumns = Arrays.copyOf(touchedColumns, touchedCount * 2);
+				touchedColumns[touchedCount++] = column;
+			}
+			
+			if (_FREQ == FREQ.FREQ_MAX)
+				buffer[column] = Math.max(buffer[column], value);
+			else // if (_FREQ == FREQ.FREQ_SUM)
+				buffer[column] = buffer[column] + value;
+		}
+		
+		// compress the buffer into the given row of the matrix, and reset the buffer for the next row
+		public void flushTo(int row){
+			Arrays.sort(touchedColumns, 0, touchedCount);
+			
+			int nonZeroCount = 0;
+			for (int k=0; k<touchedCount; k++)
+				if (buffer[touchedColumns[k]] != 0) {
+					nonZeroCount++;
+					totalMass += buffer[touchedColumns[k]];
+				}
+			
+			// keep the topK largest cells: the ones above the k-th largest value, and the ones equal to it in column order
+			double threshold = Double.NEGATIVE_INFINITY;
+			int thresholdCount = Integer.MAX_VALUE;
+			if (topK > 0 && nonZeroCount > topK)
+			{
+				double[] sortedValues = new double[nonZeroCount];
+				int next = 0;
+				for (int k=0; k<touchedCount; k++)
+					if (buffer[touchedColumns[k]] != 0) sortedValues[next++] = buffer[touchedColumns[k]];
+				Arrays.sort(sortedValues);
+				threshold = sortedValues[nonZeroCount - topK];
+				thresholdCount = 0;
+				for (int k=nonZeroCount - topK; k<nonZeroCount; k++)
+					if (sortedValues[k] == threshold) thresholdCount++;
+				nonZeroCount = topK;
+			}
+			
+			int[] columns = new int[nonZeroCount];
+			double[] values = new double[nonZeroCount];
+			int next = 0;
+			for (int k=0; k<touchedCount; k++)
+			{
+				int column = touchedColumns[k];
+				if (buffer[column] != 0 && buffer[column] >= threshold && (buffer[column] > threshold || thresholdCount-- > 0))
+				{
+					columns[next] = column;
+					values[next] = buffer[column];
+					next++;
+					retainedMass += buffer[column];
+					if (buffer[column] > 0) documentFrequencies[column]++;
+				}
+				buffer[column] = 0;
+				touched[column] = false;
+			}
+			touchedCount = 0;
+			
+			// each row is written by a single accumulator, different rows may be written concurrently
+			rowColumns[row] = columns;
+			rowValues[row] = values;
+		}
+	}
+}
@@ -26,31 +26,37 @@
 
 package nl.tue.set.samos.vsm;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.ujmp.core.Matrix;
-import org.ujmp.core.SparseMatrix;
 
 import nl.tue.set.samos.common.Configuration;
 import nl.tue.set.samos.common.Constants;
 import nl.tue.set.samos.common.Parameters;
+import nl.tue.set.samos.common.Util;
 import nl.tue.set.samos.common.enums.FREQ;
 import nl.tue.set.samos.common.enums.IDF;
 import nl.tue.set.samos.common.enums.STRUCTURE;
+import nl.tue.set.samos.common.enums.SYNONYM;
+import nl.tue.set.samos.common.enums.TREE_CMP;
+import nl.tue.set.samos.common.enums.VSM_FORMAT;
 import nl.tue.set.samos.common.enums.VSM_MODE;
 import nl.tue.set.samos.common.enums.WEIGHT;
 import nl.tue.set.samos.feature.Feature;
@@ -58,9 +64,9 @@ import nl.tue.set.samos.feature.NGram;
 import nl.tue.set.samos.feature.NTreeApted;
 import nl.tue.set.samos.feature.SimpleType;
 import nl.tue.set.samos.feature.TypedFeature;
+import nl.tue.set.samos.feature.compare.FeatureBlockingIndex;
+import nl.tue.set.samos.feature.compare.ComparisonContext;
 import nl.tue.set.samos.feature.compare.FeatureComparator;
-import nl.tue.set.samos.feature.parser.JSONParser;
-import nl.tue.set.samos.feature.parser.PlainTextParser;
 import node.Node;
 
 /**
@@ -82,6 +88,31 @@ public class VSMBuilder {
 	
 	public static String midfix;
 	
+	// number of worker threads for the QUADRATIC vsm computation; 1 means the sequential computation 
+	public int PARALLELISM = 1;
+	
+	// skip the provably zero comparisons in the QUADRATIC vsm computation using a blocking index over the vocabulary (n-grams only, exact)  
+	public boolean USE_BLOCKING_INDEX = true;
+	
+	// compute the feature x feature similarities once for the QUADRATIC vsm, and build the model rows from them instead of comparing every feature occurrence
+	public boolean FACTORED_SIMILARITY = false;
+	
+	// output format of the vsm file; the R analyses read the (legacy) dense CSV 
+	public VSM_FORMAT OUTPUT_FORMAT = VSM_FORMAT.CSV;
+	
+	// sparsification of the QUADRATIC vsm rows: similarity scores below EPSILON are not accumulated, and only the TOP_K largest cells of each row are kept (0 for all)
+	public int TOP_K = 0;
+	public double EPSILON = 0.0;
+	
+	// keep the raw QUADRATIC vsm in the vsm folder, and only compute the new or changed models and features in the next run 
+	public boolean INCREMENTAL = false;
+	// number of models whose stored raw rows were reused in the last incremental computation
+	private int reusedModelCount = 0;
+	
+	// comparison technique for n-trees, and the similarity threshold for the cascade (see FeatureComparator.compareNTreeCascade) 
+	public TREE_CMP TREE_COMPARE = TREE_CMP.HUNGARIAN;
+	public double CASCADE_THRESHOLD = 0.7;
+	
 	public VSMBuilder(Configuration configuration){
 		this.featureFolder = configuration.featureFolder;
 		this.vsmFolder = configuration.vsmFolder;
@@ -89,118 +120,102 @@ public class VSMBuilder {
 	
 	// main method to compute the vsm from a folder of feature files and precomputed nlp
 	public void buildVSM(Parameters params, String tag) throws IOException { 
+		FeatureComparator comparator = new FeatureComparator(ComparisonContext.load(params, featureFolder));
+		
+		buildVSM(params, tag, FeatureCorpus.read(featureFolder, params._STRUCTURE), comparator);
+	}
+	
+	// compute several vsms (tag -> parameters) from the same folder in one go: the feature files are parsed once per structure, 
+	// and the comparison contexts share the loaded NLP (WordNet) and caches
+	public void buildVSMs(LinkedHashMap<String, Parameters> paramsPerTag) throws IOException {
+		HashMap<STRUCTURE, FeatureCorpus> corpora = new HashMap<STRUCTURE, FeatureCorpus>();
+		ComparisonContext sharedContext = null;
+		
+		for (Map.Entry<String, Parameters> entry : paramsPerTag.entrySet())
+		{
+			Parameters params = entry.getValue();
+			logger.info("running " + Util.generateIdFromParams(params) + " for " + entry.getKey());
+			
+			FeatureCorpus corpus = corpora.get(params._STRUCTURE);
+			if (corpus == null) {
+				corpus = FeatureCorpus.read(featureFolder, params._STRUCTURE);
+				corpora.put(params._STRUCTURE, corpus);
+			}
+			
+			ComparisonContext context = sharedContext == null?ComparisonContext.load(params, featureFolder):sharedContext.derive(params, featureFolder);
+			sharedContext = context;
+			
+			buildVSM(params, entry.getKey(), corpus, new FeatureComparator(context));
+		}
+	}
+	
+	// compute the vsm from the parsed feature files, with a comparator (on a loaded context) for the same parameters 
+	public void buildVSM(Parameters params, String tag, FeatureCorpus corpus, FeatureComparator comparator) throws IOException { 
 		long startTime = System.currentTimeMillis();
 		
 		setWeights(params._WEIGHT);
 		
-		featureComparator = new FeatureComparator(params);
-		featureComparator.loadUpCache(featureFolder);
-
-		File dir = new File(featureFolder);
+		featureComparator = comparator;
+		featureComparator.TREE_COMPARE = TREE_COMPARE;
+		featureComparator.CASCADE_THRESHOLD = CASCADE_THRESHOLD;
+		featureComparator.resetCascadeCounts();
 		
-		midfix = "";
-		File[] ngramFiles = dir.listFiles(new FilenameFilter() { 
-	         public boolean accept(File dir, String filename)
-	              { return filename.endsWith(midfix + Constants.featureFileSuffix); }
-   	} );
-		
-		ArrayList<String> allModelNames = new ArrayList<String>();
-		ArrayList<ArrayList<Feature>> allFeatures = new ArrayList<ArrayList<Feature>>();
-		LinkedHashSet<Feature> maximalFeatureSet = new LinkedHashSet<Feature>();
+		ArrayList<String> allModelNames = corpus.modelNames;
+		ArrayList<ArrayList<Feature>> allFeatures = corpus.features;
+		LinkedHashSet<Feature> maximalFeatureSet = corpus.vocabulary;
+		HashMap<Feature, Integer> vocabularyIndexMap = corpus.vocabularyIndexMap;
 		
 		int totalVocabularyCount = 0;
 		
-		Matrix rawTfSparseMatrix = null;
+		SparseRowMatrixBuilder rawTfBuilder = null;
+		double[] weightArray = null;
 		double[] idfArray = null;
-		Matrix targetTfSparseMatrix = null;
 		
-		// process each feature file
-		for(File uf : ngramFiles)
+		comparisonCount.set(0);
+		reusedModelCount = 0;
+		
+		// incremental application of all-pairs comparison: reuse the stored raw rows of the unchanged models, compare the rest
+		if (params._VSM_MODE == VSM_MODE.QUADRATIC && INCREMENTAL)
 		{
-			logger.info("vsm processing model feature file " + uf.getName());
-			try {				
-				// add model name
-				allModelNames.add(uf.getName().replaceFirst(Constants.featureFileSuffix, ""));
-				
-				BufferedReader br = new BufferedReader(new FileReader(uf));
-				
-				ArrayList<Feature> features = new ArrayList<Feature>();
-				String s = null;
-				
-				// process all the features per feature file
-				while((s = br.readLine()) != null) {
-					Feature f = null;
-					if (params._STRUCTURE == STRUCTURE.NTREE)
-						f = JSONParser.parseText(s);
-					else
-						f = PlainTextParser.parseText(s);
-					 
-					if (f == null){
-						logger.error("ERROR: parsed null feature: " + f);
-					} else {
-						features.add(f);
-						if (!maximalFeatureSet.contains(f)) // construct a maximal feature set (i.e. all features in all files)
-							maximalFeatureSet.add(f);					
-					}
-				}
-				
-				allFeatures.add(features);
-								
-				// clean up
-				br.close();
-				
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} 
+			rawTfBuilder = buildQuadraticIncremental(params, tag, corpus);
 		}
 		
-		logger.info("Total unique feature count:" + maximalFeatureSet.size());
+		// factored application of all-pairs comparison: each unique feature is compared with all once, the model rows are combined from these similarities
+		else if (params._VSM_MODE == VSM_MODE.QUADRATIC && FACTORED_SIMILARITY)
+		{
+			rawTfBuilder = buildQuadraticFactored(params, allFeatures, maximalFeatureSet, vocabularyIndexMap);
+		}
+		
+		// parallel application of all-pairs comparison: the model rows are spread over a fork-join pool, with the same result as the sequential one below
+		else if (params._VSM_MODE == VSM_MODE.QUADRATIC && PARALLELISM > 1)
+		{
+			rawTfBuilder = buildQuadraticParallel(params, allFeatures, maximalFeatureSet);
+		}
 		
 		// regular application of all-pairs comparison: compare all with all, sum up the similarity score
-		if (params._VSM_MODE == VSM_MODE.QUADRATIC) 
+		else if (params._VSM_MODE == VSM_MODE.QUADRATIC) 
 		{		
-			rawTfSparseMatrix = SparseMatrix.Factory.zeros(allFeatures.size(), maximalFeatureSet.size());
+			rawTfBuilder = newQuadraticBuilder(params, allFeatures.size(), maximalFeatureSet.size());
+			SparseRowMatrixBuilder.RowAccumulator row = rawTfBuilder.newRowAccumulator();
+			Feature[] columnFeatures = maximalFeatureSet.toArray(new Feature[maximalFeatureSet.size()]);
+			FeatureBlockingIndex blockingIndex = buildBlockingIndex(params, columnFeatures);
+			FeatureBlockingIndex.Lookup lookup = blockingIndex == null?null:blockingIndex.newLookup();
 
 			for (int modelNr=0; modelNr<allFeatures.size(); modelNr++)
 			{
-				int vocabularyIndex = 0;
-
 				logger.info("model or model fragment " + modelNr + "/" + allFeatures.size() + " with feature count = " + allFeatures.get(modelNr).size());
 
-				for (Feature columnFeature: maximalFeatureSet)
-				{				
-					for (Feature rowFeature: allFeatures.get(modelNr))
-					{	
-						double temp = rawTfSparseMatrix.getAsDouble(modelNr,vocabularyIndex);
-						double comparisonResult = featureComparator.compare(rowFeature, columnFeature);
-						// FIXME should never be smaller than 0, safety check here. 
-						if (comparisonResult < 0) comparisonResult = 0;
-							
-						// FIXME uncomment and fix here
-						//		if ((!typeExactMatch1 || typeExactMatch2) && typeMatchTotal && rawTfMatrix[modelNr][vocabularyIndex] > 0 )
-						//			if (MATCH_LOG_FLAG) matchLog.println("NONTYPE MATCH:" + rowPair + " vs " + columnPair);
-
-
-						if(params._FREQ == FREQ.FREQ_MAX)
-							rawTfSparseMatrix.setAsDouble(Math.max(temp, comparisonResult), modelNr, vocabularyIndex);
-						else // if (_FREQ == FREQ.FREQ_SUM)
-							rawTfSparseMatrix.setAsDouble(temp + comparisonResult, modelNr, vocabularyIndex);
-					}												
-					vocabularyIndex++;				
-				}
-
+				accumulateQuadraticRow(featureComparator, lookup, allFeatures.get(modelNr), columnFeatures, null, row);
+				row.flushTo(modelNr);
 			}
+			logComparisonCount(allFeatures, columnFeatures.length);
 		}
 		
 		else // if LINEAR VSM: just binary comparison (feature is present or not)
 		{		
-			rawTfSparseMatrix = SparseMatrix.Factory.zeros(allFeatures.size(), maximalFeatureSet.size());
-
-			Feature[] maximalFeatureArray = new Feature[maximalFeatureSet.size()];
-			maximalFeatureSet.toArray(maximalFeatureArray);
-			List<Feature> maximalFeatureList = Arrays.asList(maximalFeatureArray);
+			rawTfBuilder = new SparseRowMatrixBuilder(allFeatures.size(), maximalFeatureSet.size(), params._FREQ);
+			SparseRowMatrixBuilder.RowAccumulator row = rawTfBuilder.newRowAccumulator();
+			long linearStartTime = System.currentTimeMillis();
 			
 			for (int modelNr=0; modelNr<allFeatures.size(); modelNr++)
 			{
@@ -210,146 +225,42 @@ public class VSMBuilder {
 										
 				for (Feature rowFeature: allFeatures.get(modelNr))
 				{	
-					vocabularyIndex = maximalFeatureList.indexOf(rowFeature);		
-					
-					double temp = rawTfSparseMatrix.getAsDouble(modelNr,vocabularyIndex);
+					vocabularyIndex = vocabularyIndexMap.get(rowFeature);		
 					
 					// FIXME uncomment and fix here
 					//		if ((!typeExactMatch1 || typeExactMatch2) && typeMatchTotal && rawTfMatrix[modelNr][vocabularyIndex] > 0 )
 					//			if (MATCH_LOG_FLAG) matchLog.println("NONTYPE MATCH:" + rowPair + " vs " + columnPair);
 
-					if(params._FREQ == FREQ.FREQ_MAX)
-						rawTfSparseMatrix.setAsDouble(1, modelNr, vocabularyIndex);
-					else // if (_FREQ == FREQ.FREQ_SUM)
-						rawTfSparseMatrix.setAsDouble(temp + 1, modelNr, vocabularyIndex);
-				}																					
+					// binary occurrence: max gives 1, sum gives the count
+					row.add(vocabularyIndex, 1);
+				}
+				row.flushTo(modelNr);
 			}
+			
+			logger.info("LINEAR vsm for " + allFeatures.size() + " models and " + maximalFeatureSet.size() + " features built in " + (System.currentTimeMillis() - linearStartTime) + " ms");
+		}
+
+		// the reused rows are already sparsified, the mass they dropped is not known 
+		if (params._VSM_MODE == VSM_MODE.QUADRATIC && (TOP_K > 0 || EPSILON > 0) && reusedModelCount > 0)
+			logger.info("sparsified vsm (top-k " + TOP_K + ", epsilon " + EPSILON + "): retained mass not reported, " + reusedModelCount 
+					+ " models reused from the stored vsm, non-zeros: " + rawTfBuilder.getNonZeroCount());
+		else if (params._VSM_MODE == VSM_MODE.QUADRATIC && (TOP_K > 0 || EPSILON > 0))
+		{
+			double totalMass = rawTfBuilder.getTotalMass(), retainedMass = rawTfBuilder.getRetainedMass();
+			logger.info("sparsified vsm (top-k " + TOP_K + ", epsilon " + EPSILON + "): retained mass " + retainedMass + " out of " + totalMass 
+					+ " (" + (totalMass == 0?100.0:100.0 * retainedMass / totalMass) + "%), non-zeros: " + rawTfBuilder.getNonZeroCount());
 		}
 			
 		totalVocabularyCount = maximalFeatureSet.size();
 		double totalDocs = allFeatures.size();
 	
-		if (params._WEIGHT == WEIGHT.RAW)
-			targetTfSparseMatrix = rawTfSparseMatrix;
-		else { // some type-based weighting scheme			
-			int j = -1;
+		// post-processing in a single pass over the non-zeros: each column is scaled by its (type-based) weight and its idf 
+		if (params._WEIGHT != WEIGHT.RAW) // some type-based weighting scheme			
+		{
+			weightArray = new double[totalVocabularyCount];
+			int j = 0;
 			for (Feature f : maximalFeatureSet)
-			{
-				j++;
-				double weight = 0;
-				try{
-					// default  - set all to 1 no matter what
-					// weight = 1;
-					// experimental - just consider the column n-gram (ignore the row & comparison), average the vertex weights 					
-//					for (Pair<String, String> p : maximalFeatureSet.get(j).pairs)
-//						weight = weight + weightsMap.get(p.x);
-//					weight = weight / maximalNgramVector.get(j).n;
-					// not going for the experimental weighing for now 
-					
-					// DEFAULT WEIGHT
-					weight = 1.0;
-					
-					if (f instanceof NTreeApted){
-						Feature rootNode = ((NTreeApted) f).aptedTree.getNodeData();
-						Feature simpleRoot = ((NGram) rootNode).get(0);
-						if (simpleRoot instanceof TypedFeature){
-							// normally an error if not in the map FIXME
-							try{
-								// weight based on the first element
-//								weight = weightsMap.get(((TypedFeature) firstGram).getType());
-								
-								// weight based on the average
-								weight = 0;
-								int total = 0;
-								
-								// add root
-								weight += weightsMap.get(((TypedFeature) simpleRoot).getType());
-								total++;
-							
-								// add children
-								Vector<Node<Feature>> children = ((NTreeApted) f).aptedTree.getChildren();
-								for (int k=0; k<children.size(); k++){
-									Feature node = children.get(k).getNodeData();		
-									// HACK get the 1st (not 0th, it's always an edge) in the ngram
-									if (node instanceof NGram && ((NGram) node).n > 1) {
-										
-										String edgeType = ((TypedFeature)((NGram) node).get(0)).getType();
-										if (edgeType.equalsIgnoreCase(Constants.CONTAINS)) {
-											total++;
-											weight += weightsMap.get(((TypedFeature)((NGram) node).get(1)).getType());
-										}
-										else if (edgeType.equals(Constants.THROWS) || edgeType.equals(Constants.HAS_SUPERTYPE)) {
-											total++;
-											weight += weightsMap.get(edgeType);
-										}
-										else {
-											logger.error("forgot to add weight for edge type?? " + edgeType);
-										}
-									}
-								}
-								weight = weight / (1.0 * total);
-							} catch(Exception ex) {
-								ex.printStackTrace();
-								weight = 1.0;
-							}
-						}
-							
-					}
-					
-					else if (f instanceof NGram){
-						NGram ng = (NGram) f;
-						Feature firstGram = ng.get(0);
-						
-						if (firstGram instanceof TypedFeature) {
-							// normally an error if not in the map FIXME
-							try{
-								// weight based on the first element
-//								weight = weightsMap.get(((TypedFeature) firstGram).getType());
-								
-								// weight based on the average
-								weight = 0;
-								int total = 0;
-								for (int k=0; k<ng.n; k++){
-									Feature fn = ng.get(k);
-									if (fn instanceof SimpleType) {
-										String edgeType = ((SimpleType)fn).getType();
-										if (edgeType.equals(Constants.CONTAINS))
-											continue;
-										else if (edgeType.equals(Constants.THROWS) || edgeType.equals(Constants.HAS_SUPERTYPE)) {
-											total++;
-											weight += weightsMap.get(edgeType);
-											k++; // iterate one further
-										}
-										else {
-											logger.error("forgot to add weight for edge type?? " + edgeType);
-										}
-									}
-										
-									else if (fn instanceof TypedFeature) {
-										total++;
-										weight += weightsMap.get(((TypedFeature) fn).getType());
-									}
-								}
-								weight = weight / (1.0 * total);
-							} catch(Exception ex) {
-								ex.printStackTrace();
-								weight = 1.0;
-							}
-						}
-					}
-					
-				} catch(NullPointerException ex){
-					logger.error("Error " + j + " << " + f);
-					ex.printStackTrace();
-					System.exit(-1);
-				}
-				for (int i=0; i<totalDocs; i++)
-				{
-					rawTfSparseMatrix.setAsDouble(rawTfSparseMatrix.getAsDouble(i, j) * weight, i,j);
-				}
-			}
-			targetTfSparseMatrix = rawTfSparseMatrix;
-			
+				weightArray[j++] = getFeatureWeight(f);
 		}		
 
 		// (log((total documents)/(number of docs with the term))
@@ -362,16 +273,13 @@ public class VSMBuilder {
 			idfArray = new double[totalVocabularyCount];
 			Arrays.fill(idfArray, 0.0);
 			
+			// tracked during the accumulation, on the raw values. 
+			int[] rawDocumentFrequencies = rawTfBuilder.getDocumentFrequencies();
+			
 			for (int j=0; j<totalVocabularyCount; j++)
 			{
-				int numOfDocsWithTerm = 0;
-				for (int i=0; i<totalDocs; i++)
-				{
-					//if (rawTfMatrix[i][j] == 1.0) // CAREFUL, MULTIPLIED WITH WEIGHTS ALREADY
-//					if (targetTfMatrix[i][j] > 0)
-					if (targetTfSparseMatrix.getAsDouble(i, j) > 0)
-						numOfDocsWithTerm++; 
-				}
+				// CAREFUL, MULTIPLIED WITH WEIGHTS: a non-positive weight leaves no positive values in the column 
+				int numOfDocsWithTerm = (weightArray == null || weightArray[j] > 0)?rawDocumentFrequencies[j]:0;
 				if (params._IDF != IDF.NO_IDF)
 				{
 					int sum = params._IDF == IDF.LOG?0:1;
@@ -384,43 +292,466 @@ public class VSMBuilder {
 						logger.error("ERROR infinity idf at " + j + " = " + idfArray[j]);
 				}
 			}
+		}		
+		
+		rawTfBuilder.scaleColumns(weightArray, idfArray);
+		
+		ArrayList<String> featureNames = new ArrayList<String>();
+		for (Feature f : maximalFeatureSet)
+			featureNames.add(f.toString());
+		VSMFile vsmFile = new VSMFile(rawTfBuilder, allModelNames, featureNames); 
+		vsmFile.write(vsmFolder + "vsm-" + tag + VSMFile.getExtension(OUTPUT_FORMAT), OUTPUT_FORMAT);
+
+		if (TREE_COMPARE == TREE_CMP.CASCADE && params._STRUCTURE == STRUCTURE.NTREE)
+			logger.info("n-tree pairs resolved by the cascade: " + featureComparator.getCascadeCounts());
+		logger.info("ELAPSED TIME: " + (System.currentTimeMillis() - startTime));
+	}
+	
+	// raw QUADRATIC vsm, with the sparsification settings
+	private SparseRowMatrixBuilder newQuadraticBuilder(Parameters params, int rowCount, int columnCount) {
+		SparseRowMatrixBuilder rawTfBuilder = new SparseRowMatrixBuilder(rowCount, columnCount, params._FREQ);
+		rawTfBuilder.setSparsification(TOP_K, EPSILON);
+		return rawTfBuilder;
+	}
+	
+	// compute the QUADRATIC raw vsm in parallel: each worker fills one model row at a time into its own row buffer, using its own comparator
+	private SparseRowMatrixBuilder buildQuadraticParallel(Parameters params, ArrayList<ArrayList<Feature>> allFeatures, LinkedHashSet<Feature> maximalFeatureSet) throws IOException {
+		final SparseRowMatrixBuilder rawTfBuilder = newQuadraticBuilder(params, allFeatures.size(), maximalFeatureSet.size());
+		final Feature[] columnFeatures = maximalFeatureSet.toArray(new Feature[maximalFeatureSet.size()]);
+		final FeatureBlockingIndex blockingIndex = buildBlockingIndex(params, columnFeatures);
+		
+		final ThreadLocal<FeatureComparator> workerComparators = ThreadLocal.withInitial(() -> new FeatureComparator(featureComparator));
+		final ThreadLocal<FeatureBlockingIndex.Lookup> lookups = ThreadLocal.withInitial(() -> blockingIndex == null?null:blockingIndex.newLookup());
+		final ThreadLocal<SparseRowMatrixBuilder.RowAccumulator> rowAccumulators = ThreadLocal.withInitial(rawTfBuilder::newRowAccumulator);
+		
+		forEachRow(allFeatures.size(), modelNr -> {
+			logger.info("model or model fragment " + modelNr + "/" + allFeatures.size() + " with feature count = " + allFeatures.get(modelNr).size());
+			
+			SparseRowMatrixBuilder.RowAccumulator row = rowAccumulators.get();
+			accumulateQuadraticRow(workerComparators.get(), lookups.get(), allFeatures.get(modelNr), columnFeatures, null, row);
+			row.flushTo(modelNr);
+		});
+		logComparisonCount(allFeatures, columnFeatures.length);
+		
+		return rawTfBuilder;
+	}
+	
+	// compute the QUADRATIC raw vsm as (model x feature occurrences) times (feature x feature similarities). the similarity of each pair of unique features 
+	// is computed once (once per unordered pair if the comparison is symmetric), and each model row adds up the similarity rows of its features, 
+	// in the same order as the direct computation.
+	private SparseRowMatrixBuilder buildQuadraticFactored(Parameters params, ArrayList<ArrayList<Feature>> allFeatures, LinkedHashSet<Feature> maximalFeatureSet, HashMap<Feature, Integer> vocabularyIndexMap) throws IOException {
+		final Feature[] columnFeatures = maximalFeatureSet.toArray(new Feature[maximalFeatureSet.size()]);
+		final FeatureBlockingIndex blockingIndex = buildBlockingIndex(params, columnFeatures);
+		
+		// for symmetric pairs only the upper triangle is computed and mirrored afterwards
+		final boolean[] symmetric = new boolean[columnFeatures.length];
+		int symmetricCount = 0;
+		for (int i=0; i<columnFeatures.length; i++)
+			if (symmetric[i] = featureComparator.isSymmetricallyComparable(columnFeatures[i])) symmetricCount++;
+		logger.info("symmetric comparison for " + symmetricCount + " out of " + columnFeatures.length + " features");
+		
+		final SparseRowMatrixBuilder similarityBuilder = new SparseRowMatrixBuilder(columnFeatures.length, columnFeatures.length, FREQ.FREQ_SUM);
+		final ThreadLocal<FeatureComparator> workerComparators = ThreadLocal.withInitial(() -> new FeatureComparator(featureComparator));
+		final ThreadLocal<FeatureBlockingIndex.Lookup> lookups = ThreadLocal.withInitial(() -> blockingIndex == null?null:blockingIndex.newLookup());
+		final ThreadLocal<SparseRowMatrixBuilder.RowAccumulator> similarityRows = ThreadLocal.withInitial(similarityBuilder::newRowAccumulator);
+		
+		forEachRow(columnFeatures.length, featureNr -> {
+			FeatureComparator comparator = workerComparators.get();
+			FeatureBlockingIndex.Lookup lookup = lookups.get();
+			SparseRowMatrixBuilder.RowAccumulator row = similarityRows.get();
 			
+			int candidateCount = columnFeatures.length;
+			if (lookup != null) {
+				lookup.find(columnFeatures[featureNr]);
+				candidateCount = lookup.candidates.size;
+			}
 			
-			for (int i=0; i<allModelNames.size(); i++)
+			long comparisons = 0;
+			for (int k=0; k<candidateCount; k++)
 			{
-				for (int j=0; j<totalVocabularyCount; j++)
-					targetTfSparseMatrix.setAsDouble(targetTfSparseMatrix.getAsDouble(i, j) * idfArray[j], i, j);
+				int vocabularyIndex = lookup == null?k:lookup.candidates.values[k];
+				if (vocabularyIndex < featureNr && symmetric[featureNr] && symmetric[vocabularyIndex]) 
+					continue;
+				
+				double comparisonResult = comparator.compare(columnFeatures[featureNr], columnFeatures[vocabularyIndex]);
+				// FIXME should never be smaller than 0, safety check here. 
+				if (comparisonResult < 0) comparisonResult = 0;
+				row.add(vocabularyIndex, comparisonResult);
+				comparisons++;
 			}
+			row.flushTo(featureNr);
+			comparisonCount.addAndGet(comparisons);
+		});
+		similarityBuilder.symmetrize(symmetric);
+		logger.info("feature comparisons: " + comparisonCount.get() + " out of " + ((long) columnFeatures.length * columnFeatures.length) 
+				+ ", non-zero similarities: " + similarityBuilder.getNonZeroCount());
+		
+		final SparseRowMatrixBuilder rawTfBuilder = newQuadraticBuilder(params, allFeatures.size(), columnFeatures.length);
+		final ThreadLocal<SparseRowMatrixBuilder.RowAccumulator> rowAccumulators = ThreadLocal.withInitial(rawTfBuilder::newRowAccumulator);
+		
+		forEachRow(allFeatures.size(), modelNr -> {
+			SparseRowMatrixBuilder.RowAccumulator row = rowAccumulators.get();
+			// per feature occurrence (not per unique feature), so that each cell gets the same sequence of scores as in the direct computation 
+			for (Feature rowFeature : allFeatures.get(modelNr))
+			{
+				int featureNr = vocabularyIndexMap.get(rowFeature);
+				int[] columns = similarityBuilder.getRowColumns(featureNr);
+				double[] values = similarityBuilder.getRowValues(featureNr);
+				for (int k=0; k<columns.length; k++)
+					row.add(columns[k], values[k]);
+			}
+			row.flushTo(modelNr);
+		});
+		
+		return rawTfBuilder;
+	}
+	
+	// compute the QUADRATIC raw vsm incrementally, using the state stored by the previous run with the same tag: the unchanged models (same feature file) 
+	// reuse their stored raw rows and are only compared with the new features, the new or changed models are compared with all the features. 
+	// the result is the same as the full computation (with TOP_K > 0, the stored rows are only reused if no stored feature was removed or reordered). 
+	// the new state is stored for the next run.
+	private SparseRowMatrixBuilder buildQuadraticIncremental(Parameters params, String tag, FeatureCorpus corpus) throws IOException {
+		final ArrayList<String> allModelNames = corpus.modelNames;
+		final ArrayList<ArrayList<Feature>> allFeatures = corpus.features;
+		final Feature[] columnFeatures = corpus.vocabulary.toArray(new Feature[corpus.vocabulary.size()]);
+		// the n-tree comparison technique (and the cascade threshold) also change the scores
+		final String parametersId = Util.generateIdFromParams(params) + "-" + params._VSM_MODE + "-" + TOP_K + "-" + EPSILON
+				+ (params._STRUCTURE == STRUCTURE.NTREE ? "-" + TREE_COMPARE + (TREE_COMPARE == TREE_CMP.CASCADE ? "-" + CASCADE_THRESHOLD : "") : "");
+		final HashSet<String> unknownNames = getUnknownNames(params, columnFeatures);
+		final File stateFile = new File(vsmFolder + "vsm-" + tag + ".state");
+		
+		VSMState loadedState = VSMState.load(stateFile);
+		if (loadedState != null && !loadedState.parametersId.equals(parametersId)) {
+			logger.info("stored vsm state computed with " + loadedState.parametersId + ", full computation");
+			loadedState = null;
+		}
+		// a name which was not in the dictionary changes from the multiword fallback to the synonym lookup
+		if (loadedState != null) {
+			for (String name : loadedState.unknownNames)
+				if (featureComparator.reverseDictionary.containsKey(name)) {
+					logger.info("stored vsm state has a name which is now in the dictionary: " + name + ", full computation");
+					loadedState = null;
+					break;
+				}
+		}
+		
+		final int[] stateColumns = getStateColumns(corpus, loadedState);
+		// with top-k sparsification the stored rows only have their top-k cells (ties in column order): they can be extended with the new columns, 
+		// but not if a stored column is dropped (the next largest cells are not stored) or the order of the stored columns changes (the ties change)
+		if (loadedState != null && TOP_K > 0 && !keepsColumnOrder(stateColumns)) {
+			logger.info("stored vsm state has removed or reordered features with top-k sparsification, full computation");
+			loadedState = null;
+		}
+		final VSMState state = loadedState;
+		
+		// the features which were not in the stored vocabulary
+		boolean[] newColumn = new boolean[columnFeatures.length];
+		Arrays.fill(newColumn, true);
+		if (state != null)
+			for (int column : stateColumns)
+				if (column >= 0) newColumn[column] = false;
+		
+		int newColumnCount = 0;
+		for (boolean b : newColumn) if (b) newColumnCount++;
+		final int[] newColumnIndices = new int[newColumnCount];
+		final Feature[] newColumnFeatures = new Feature[newColumnCount];
+		for (int column=0, k=0; column<columnFeatures.length; column++)
+			if (newColumn[column]) {
+				newColumnIndices[k] = column;
+				newColumnFeatures[k++] = columnFeatures[column];
+			}
+		
+		final FeatureBlockingIndex blockingIndex = buildBlockingIndex(params, columnFeatures);
+		final FeatureBlockingIndex newBlockingIndex = buildBlockingIndex(params, newColumnFeatures);
+		
+		final SparseRowMatrixBuilder rawTfBuilder = newQuadraticBuilder(params, allFeatures.size(), columnFeatures.length);
+		final ThreadLocal<FeatureComparator> workerComparators = ThreadLocal.withInitial(() -> new FeatureComparator(featureComparator));
+		final ThreadLocal<FeatureBlockingIndex.Lookup> lookups = ThreadLocal.withInitial(() -> blockingIndex == null?null:blockingIndex.newLookup());
+		final ThreadLocal<FeatureBlockingIndex.Lookup> newLookups = ThreadLocal.withInitial(() -> newBlockingIndex == null?null:newBlockingIndex.newLookup());
+		final ThreadLocal<SparseRowMatrixBuilder.RowAccumulator> rowAccumulators = ThreadLocal.withInitial(rawTfBuilder::newRowAccumulator);
+		final AtomicLong reusedCount = new AtomicLong();
+		
+		forEachRow(allFeatures.size(), modelNr -> {
+			SparseRowMatrixBuilder.RowAccumulator row = rowAccumulators.get();
+			VSMState.ModelRow storedRow = state == null?null:state.models.get(allModelNames.get(modelNr));
 			
-		}		
+			if (storedRow != null && storedRow.featureHash.equals(corpus.modelHashes.get(modelNr))) {
+				// stored cells (in other columns than the new ones), and back-fill the new columns
+				for (int k=0; k<storedRow.columns.length; k++)
+				{
+					int column = stateColumns[storedRow.columns[k]];
+					if (column >= 0) row.add(column, storedRow.values[k]);
+				}
+				accumulateQuadraticRow(workerComparators.get(), newLookups.get(), allFeatures.get(modelNr), newColumnFeatures, newColumnIndices, row);
+				reusedCount.incrementAndGet();
+			}
+			else {
+				logger.info("model or model fragment " + modelNr + "/" + allFeatures.size() + " with feature count = " + allFeatures.get(modelNr).size());
+				accumulateQuadraticRow(workerComparators.get(), lookups.get(), allFeatures.get(modelNr), columnFeatures, null, row);
+			}
+			row.flushTo(modelNr);
+		});
+		reusedModelCount = (int) reusedCount.get();
+		logger.info("incremental vsm: " + reusedCount.get() + " out of " + allFeatures.size() + " models reused, " + newColumnCount + " out of " 
+				+ columnFeatures.length + " new features");
+		logComparisonCount(allFeatures, columnFeatures.length);
 		
-		DumpSparseMatrixToCsv(maximalFeatureSet, targetTfSparseMatrix, "vsm-" + tag + ".csv");
-
-		logger.info("ELAPSED TIME: " + (System.currentTimeMillis() - startTime));
+		// store the raw rows before the post-processing (which scales them in place)
+		VSMState newState = new VSMState(parametersId, corpus.vocabularyLines, unknownNames);
+		for (int modelNr=0; modelNr<allFeatures.size(); modelNr++)
+			newState.models.put(allModelNames.get(modelNr), new VSMState.ModelRow(corpus.modelHashes.get(modelNr), rawTfBuilder.getRowColumns(modelNr), rawTfBuilder.getRowValues(modelNr)));
+		newState.save(stateFile);
+		
+		return rawTfBuilder;
+	}
+	
+	// current column of each stored vocabulary feature (-1 if not in the vocabulary anymore)
+	private static int[] getStateColumns(FeatureCorpus corpus, VSMState state) {
+		int[] stateColumns = new int[state == null?0:state.vocabulary.size()];
+		for (int i=0; i<stateColumns.length; i++)
+		{
+			Integer column = corpus.vocabularyIndexMap.get(corpus.parseFeature(state.vocabulary.get(i)));
+			stateColumns[i] = column == null?-1:column;
+		}
+		return stateColumns;
+	}
+	
+	// whether all the stored columns are still in the vocabulary, in the same order
+	private static boolean keepsColumnOrder(int[] stateColumns) {
+		for (int i=0; i<stateColumns.length; i++)
+			if (stateColumns[i] < 0 || (i > 0 && stateColumns[i] <= stateColumns[i-1]))
+				return false;
+		return true;
+	}
+	
+	// names in the features which are not in the dictionary (compared with the multiword fallback instead of the synonym lookup)
+	private HashSet<String> getUnknownNames(Parameters params, Feature[] features) {
+		HashSet<String> unknownNames = new HashSet<String>();
+		if (params._SYNONYM == SYNONYM.NO_SYNONYM)
+			return unknownNames;
+		
+		ArrayList<NGram> ngrams = new ArrayList<NGram>();
+		for (Feature f : features)
+		{
+			if (f instanceof NGram)
+				ngrams.add((NGram) f);
+			else if (f instanceof NTreeApted)
+				collectNGrams(((NTreeApted) f).aptedTree, ngrams);
+		}
+		for (NGram ngram : ngrams)
+			for (int i=0; i<ngram.n; i++)
+				if (featureComparator.isNamedFeature(ngram.get(i)) && !featureComparator.reverseDictionary.containsKey(featureComparator.getName(ngram.get(i))))
+					unknownNames.add(featureComparator.getName(ngram.get(i)));
+		return unknownNames;
+	}
+	
+	private void collectNGrams(Node<Feature> node, ArrayList<NGram> ngrams) {
+		if (node.getNodeData() instanceof NGram)
+			ngrams.add((NGram) node.getNodeData());
+		for (Node<Feature> child : node.getChildren())
+			collectNGrams(child, ngrams);
+	}
+	
+	// run the action for all the rows: sequentially, or spread over a fork-join pool of PARALLELISM threads
+	private void forEachRow(int rowCount, IntConsumer action) throws IOException {
+		if (PARALLELISM <= 1) {
+			for (int rowNr=0; rowNr<rowCount; rowNr++)
+				action.accept(rowNr);
+			return;
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+		try {
+			pool.submit(() -> IntStream.range(0, rowCount).parallel().forEach(action)).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("parallel vsm computation failed", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	// the blocking index for the QUADRATIC vsm computation, or null if not applicable 
+	private FeatureBlockingIndex buildBlockingIndex(Parameters params, Feature[] columnFeatures) {
+		if (!USE_BLOCKING_INDEX || params._STRUCTURE == STRUCTURE.NTREE)
+			return null;
+		
+		long indexStartTime = System.currentTimeMillis();
+		FeatureBlockingIndex blockingIndex = new FeatureBlockingIndex(featureComparator, columnFeatures);
+		logger.info("blocking index built in " + (System.currentTimeMillis() - indexStartTime) + " ms");
+		return blockingIndex;
+	}
+	
+	// number of feature comparisons done in the last QUADRATIC vsm computation
+	private final AtomicLong comparisonCount = new AtomicLong();
+	
+	private void logComparisonCount(ArrayList<ArrayList<Feature>> allFeatures, int columnCount) {
+		long allPairs = 0;
+		for (ArrayList<Feature> features : allFeatures)
+			allPairs += (long) features.size() * columnCount;
+		logger.info("feature comparisons: " + comparisonCount.get() + " out of " + allPairs);
+	}
+	
+	// compare the features of one model with all the columns (or the candidate columns given by the blocking index), accumulating into the row buffer. 
+	// the scores for a single cell are accumulated in the order of the model features, as in the original column-by-column computation.
+	// the column features may be a subset of the vocabulary, with their vocabulary indices in columnIndices (null for all the vocabulary). 
+	private void accumulateQuadraticRow(FeatureComparator comparator, FeatureBlockingIndex.Lookup lookup, List<Feature> rowFeatures, Feature[] columnFeatures, int[] columnIndices, SparseRowMatrixBuilder.RowAccumulator row) {
+		long comparisons = 0;
+		for (Feature rowFeature: rowFeatures)
+		{
+			int candidateCount = columnFeatures.length;
+			if (lookup != null) {
+				lookup.find(rowFeature);
+				candidateCount = lookup.candidates.size;
+			}
+			comparisons += candidateCount;
+			
+			for (int k=0; k<candidateCount; k++)
+			{
+				int columnNr = lookup == null?k:lookup.candidates.values[k];
+				int vocabularyIndex = columnIndices == null?columnNr:columnIndices[columnNr];
+				double comparisonResult = comparator.compare(rowFeature, columnFeatures[columnNr]);
+				// FIXME should never be smaller than 0, safety check here. 
+				if (comparisonResult < 0) comparisonResult = 0;
+				
+				// FIXME uncomment and fix here
+				//		if ((!typeExactMatch1 || typeExactMatch2) && typeMatchTotal && rawTfMatrix[modelNr][vocabularyIndex] > 0 )
+				//			if (MATCH_LOG_FLAG) matchLog.println("NONTYPE MATCH:" + rowPair + " vs " + columnPair);
+				
+				row.add(vocabularyIndex, comparisonResult);
+			}
+		}
+		comparisonCount.addAndGet(comparisons);
 	}
 	
 	// export matrix to a csv file
 	public void DumpSparseMatrixToCsv(LinkedHashSet<Feature> maximalFeatureSet, Matrix sparseMatrix, String filename) throws IOException
 	{
-		FileWriter fout = new FileWriter(vsmFolder + filename);
+		new VSMFile(SparseRowMatrixBuilder.fromMatrix(sparseMatrix), new ArrayList<String>(), new ArrayList<String>()).writeCsv(vsmFolder + filename);
+	}
+
+	// type-based weight per feature, cached per feature for the current weighting scheme 
+	private final HashMap<Feature, Double> featureWeightCache = new HashMap<Feature, Double>();
+	
+	private double getFeatureWeight(Feature f){
+		Double cachedWeight = featureWeightCache.get(f);
+		if (cachedWeight != null)
+			return cachedWeight;
 		
-		long rowCount = sparseMatrix.getSize(0), columnCount = sparseMatrix.getSize(1);
-		for (int i=0; i<rowCount; i++){
-			for (int j=0; j<columnCount; j++){
-				fout.write((new Double(sparseMatrix.getAsDouble(i, j))).toString());
-				//fout.write(String.format("%.8f", new Double(row[i] * multiplier)));
+		double weight = 0;
+		try{
+			// default  - set all to 1 no matter what
+			// weight = 1;
+			// experimental - just consider the column n-gram (ignore the row & comparison), average the vertex weights 					
+//					for (Pair<String, String> p : maximalFeatureSet.get(j).pairs)
+//						weight = weight + weightsMap.get(p.x);
+//					weight = weight / maximalNgramVector.get(j).n;
+			// not going for the experimental weighing for now 
+			
+			// DEFAULT WEIGHT
+			weight = 1.0;
+			
+			if (f instanceof NTreeApted){
+				Feature rootNode = ((NTreeApted) f).aptedTree.getNodeData();
+				Feature simpleRoot = ((NGram) rootNode).get(0);
+				if (simpleRoot instanceof TypedFeature){
+					// normally an error if not in the map FIXME
+					try{
+						// weight based on the first element
+//								weight = weightsMap.get(((TypedFeature) firstGram).getType());
+						
+						// weight based on the average
+						weight = 0;
+						int total = 0;
+						
+						// add root
+						weight += weightsMap.get(((TypedFeature) simpleRoot).getType());
+						total++;
+					
+						// add children
+						Vector<Node<Feature>> children = ((NTreeApted) f).aptedTree.getChildren();
+						for (int k=0; k<children.size(); k++){
+							Feature node = children.get(k).getNodeData();		
+							// HACK get the 1st (not 0th, it's always an edge) in the ngram
+							if (node instanceof NGram && ((NGram) node).n > 1) {
+								
+								String edgeType = ((TypedFeature)((NGram) node).get(0)).getType();
+								if (edgeType.equalsIgnoreCase(Constants.CONTAINS)) {
+									total++;
+									weight += weightsMap.get(((TypedFeature)((NGram) node).get(1)).getType());
+								}
+								else if (edgeType.equals(Constants.THROWS) || edgeType.equals(Constants.HAS_SUPERTYPE)) {
+									total++;
+									weight += weightsMap.get(edgeType);
+								}
+								else {
+									logger.error("forgot to add weight for edge type?? " + edgeType);
+								}
+							}
+						}
+						weight = weight / (1.0 * total);
+					} catch(Exception ex) {
+						ex.printStackTrace();
+						weight = 1.0;
+					}
+				}
+					
+			}
+			
+			else if (f instanceof NGram){
+				NGram ng = (NGram) f;
+				Feature firstGram = ng.get(0);
 				
-				if (j < columnCount-1)
-					fout.write(",");
+				if (firstGram instanceof TypedFeature) {
+					// normally an error if not in the map FIXME
+					try{
+						// weight based on the first element
+//								weight = weightsMap.get(((TypedFeature) firstGram).getType());
+						
+						// weight based on the average
+						weight = 0;
+						int total = 0;
+						for (int k=0; k<ng.n; k++){
+							Feature fn = ng.get(k);
+							if (fn instanceof SimpleType) {
+								String edgeType = ((SimpleType)fn).getType();
+								if (edgeType.equals(Constants.CONTAINS))
+									continue;
+								else if (edgeType.equals(Constants.THROWS) || edgeType.equals(Constants.HAS_SUPERTYPE)) {
+									total++;
+									weight += weightsMap.get(edgeType);
+									k++; // iterate one further
+								}
+								else {
+									logger.error("forgot to add weight for edge type?? " + edgeType);
+								}
+							}
+								
+							else if (fn instanceof TypedFeature) {
+								total++;
+								weight += weightsMap.get(((TypedFeature) fn).getType());
+							}
+						}
+						weight = weight / (1.0 * total);
+					} catch(Exception ex) {
+						ex.printStackTrace();
+						weight = 1.0;
+					}
+				}
 			}
-			fout.write("\n");
-		}		
-		fout.close();
+			
+		} catch(NullPointerException ex){
+			logger.error("Error << " + f);
+			ex.printStackTrace();
+			System.exit(-1);
+		}
+		featureWeightCache.put(f, weight);
+		return weight;
 	}
-
+	
 	// different weighting schemes (experimental)
 	public void setWeights(WEIGHT _WEIGHT){
 		weightsMap = new HashMap<String, Double>();
+		featureWeightCache.clear();
 				
 		if (_WEIGHT == WEIGHT.RAW){
 			weightsMap.put("EPackage", 1.0);
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.vsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.tue.set.samos.common.enums.FREQ;
+import nl.tue.set.samos.common.enums.VSM_FORMAT;
+
+/**
+ * This class writes and reads a vector space model in one of the supported formats (see VSM_FORMAT):
+ * 
+ * - CSV				legacy dense csv, all cells including the zeros (no model or feature names)
+ * - MATRIX_MARKET		Matrix Market coordinate format (1-based), with the model and feature names in .rows and .columns files next to it 
+ * - BINARY_CSR			compact binary compressed sparse rows, with a header holding the model and feature names 
+*/ 
+public class VSMFile {
+	
+	// binary format: magic number ("SVSM") and version
+	public static final int BINARY_MAGIC = 0x5356534D;
+	public static final int BINARY_VERSION = 1;
+	
+	public final SparseRowMatrixBuilder matrix;
+	public final List<String> modelNames;
+	public final List<String> featureNames;
+	
+	public VSMFile(SparseRowMatrixBuilder matrix, List<String> modelNames, List<String> featureNames){
+		this.matrix = matrix;
+		this.modelNames = modelNames;
+		this.featureNames = featureNames;
+	}
+	
+	public static String getExtension(VSM_FORMAT _VSM_FORMAT){
+		switch(_VSM_FORMAT){
+		case MATRIX_MARKET: return ".mtx";
+		case BINARY_CSR: return ".vsm";
+		default: return ".csv";
+		}
+	}
+	
+	public void write(String path, VSM_FORMAT _VSM_FORMAT) throws IOException {
+		switch(_VSM_FORMAT){
+		case MATRIX_MARKET: writeMatrixMarket(path); break;
+		case BINARY_CSR: writeBinary(path); break;
+		default: writeCsv(path); break;
+		}
+	}
+	
+	public static VSMFile read(String path, VSM_FORMAT _VSM_FORMAT) throws IOException {
+		switch(_VSM_FORMAT){
+		case MATRIX_MARKET: return readMatrixMarket(path);
+		case BINARY_CSR: return readBinary(path);
+		default: return readCsv(path);
+		}
+	}
+	
+	// CSV
+	
+	public void writeCsv(String path) throws IOException {
+		BufferedWriter fout = new BufferedWriter(new FileWriter(path), 1 << 16);
+		try {
+			for (int i=0; i<matrix.rowCount; i++){
+				int[] columns = matrix.getRowColumns(i);
+				double[] values = matrix.getRowValues(i);
+				int next = 0;
+				for (int j=0; j<matrix.columnCount; j++){
+					if (next < columns.length && columns[next] == j)
+						fout.write(Double.toString(values[next++]));
+					else
+						fout.write("0.0");
+					
+					if (j < matrix.columnCount-1)
+						fout.write(",");
+				}
+				fout.write("\n");
+			}
+		} finally {
+			fout.close();
+		}
+	}
+	
+	public static VSMFile readCsv(String path) throws IOException {
+		ArrayList<int[]> allColumns = new ArrayList<int[]>();
+		ArrayList<double[]> allValues = new ArrayList<double[]>();
+		int columnCount = 0;
+		
+		BufferedReader br = new BufferedReader(new FileReader(path), 1 << 16);
+		try {
+			String s = null;
+			while((s = br.readLine()) != null) {
+				String[] cells = s.split(",");
+				columnCount = cells.length;
+				int nonZeroCount = 0;
+				double[] row = new double[cells.length];
+				for (int j=0; j<cells.length; j++) {
+					row[j] = Double.parseDouble(cells[j]);
+					if (row[j] != 0) nonZeroCount++;
+				}
+				int[] columns = new int[nonZeroCount];
+				double[] values = new double[nonZeroCount];
+				for (int j=0, k=0; j<cells.length; j++)
+					if (row[j] != 0) {
+						columns[k] = j;
+						values[k++] = row[j];
+					}
+				allColumns.add(columns);
+				allValues.add(values);
+			}
+		} finally {
+			br.close();
+		}
+		
+		SparseRowMatrixBuilder matrix = new SparseRowMatrixBuilder(allColumns.size(), columnCount, FREQ.FREQ_SUM);
+		for (int i=0; i<allColumns.size(); i++)
+			matrix.setRow(i, allColumns.get(i), allValues.get(i));
+		return new VSMFile(matrix, new ArrayList<String>(), new ArrayList<String>());
+	}
+	
+	// MATRIX MARKET
+	
+	public void writeMatrixMarket(String path) throws IOException {
+		BufferedWriter fout = new BufferedWriter(new FileWriter(path), 1 << 16);
+		try {
+			fout.write("%%MatrixMarket matrix coordinate real general\n");
+			fout.write(matrix.rowCount + " " + matrix.columnCount + " " + matrix.getNonZeroCount() + "\n");
+			for (int i=0; i<matrix.rowCount; i++){
+				int[] columns = matrix.getRowColumns(i);
+				double[] values = matrix.getRowValues(i);
+				for (int k=0; k<columns.length; k++)
+					fout.write((i+1) + " " + (columns[k]+1) + " " + Double.toString(values[k]) + "\n");
+			}
+		} finally {
+			fout.close();
+		}
+		Files.write(new File(path + ".rows").toPath(), modelNames, StandardCharsets.UTF_8);
+		Files.write(new File(path + ".columns").toPath(), featureNames, StandardCharsets.UTF_8);
+	}
+	
+	public static VSMFile readMatrixMarket(String path) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(path), 1 << 16);
+		SparseRowMatrixBuilder matrix = null;
+		try {
+			String s = br.readLine();
+			String[] header = s == null ? new String[0] : s.trim().toLowerCase().split("\\s+");
+			if (header.length != 5 || !header[0].equals("%%matrixmarket") || !header[1].equals("matrix") || !header[2].equals("coordinate"))
+				throw new IOException("not a Matrix Market coordinate file: " + path);
+			// only the format written above: the symmetric variants store one triangle only
+			if (!header[3].equals("real") || !header[4].equals("general"))
+				throw new IOException("unsupported Matrix Market matrix (" + header[3] + " " + header[4] + ", only real general): " + path);
+			// skip comments
+			while((s = br.readLine()) != null && s.startsWith("%"))
+				;
+			if (s == null)
+				throw new IOException("missing size line: " + path);
+			String[] size = s.trim().split("\\s+");
+			matrix = new SparseRowMatrixBuilder(Integer.parseInt(size[0]), Integer.parseInt(size[1]), FREQ.FREQ_SUM);
+			
+			// entries are not necessarily sorted by row
+			ArrayList<ArrayList<double[]>> entries = new ArrayList<ArrayList<double[]>>();
+			for (int i=0; i<matrix.rowCount; i++)
+				entries.add(new ArrayList<double[]>());
+			while((s = br.readLine()) != null) {
+				if (s.isEmpty()) continue;
+				String[] entry = s.trim().split("\\s+");
+				entries.get(Integer.parseInt(entry[0])-1).add(new double[] {Integer.parseInt(entry[1])-1, Double.parseDouble(entry[2])});
+			}
+			// the rows are set directly like in readCsv, so negative values are kept; duplicate entries are summed and zeros are not stored
+			for (int i=0; i<matrix.rowCount; i++) {
+				ArrayList<double[]> rowEntries = entries.get(i);
+				rowEntries.sort((a, b) -> Double.compare(a[0], b[0]));
+				int[] columns = new int[rowEntries.size()];
+				double[] values = new double[rowEntries.size()];
+				int entryCount = 0;
+				for (double[] entry : rowEntries) {
+					if (entryCount > 0 && columns[entryCount-1] == (int) entry[0])
+						values[entryCount-1] += entry[1];
+					else {
+						columns[entryCount] = (int) entry[0];
+						values[entryCount++] = entry[1];
+					}
+				}
+				int nonZeroCount = 0;
+				for (int k=0; k<entryCount; k++)
+					if (values[k] != 0) {
+						columns[nonZeroCount] = columns[k];
+						values[nonZeroCount++] = values[k];
+					}
+				matrix.setRow(i, Arrays.copyOf(columns, nonZeroCount), Arrays.copyOf(values, nonZeroCount));
+			}
+		} finally {
+			br.close();
+		}
+		
+		List<String> modelNames = new ArrayList<String>(), featureNames = new ArrayList<String>();
+		if (new File(path + ".rows").exists())
+			modelNames = Files.readAllLines(new File(path + ".rows").toPath(), StandardCharsets.UTF_8);
+		if (new File(path + ".columns").exists())
+			featureNames = Files.readAllLines(new File(path + ".columns").toPath(), StandardCharsets.UTF_8);
+		return new VSMFile(matrix, modelNames, featureNames);
+	}
+	
+	// BINARY CSR
+	// header: magic, version, row count, column count, non-zero count, model names, feature names 
+	// body: row pointers (row count + 1 longs), column indices (ints), values (doubles)
+	
+	public void writeBinary(String path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		try {
+			out.writeInt(BINARY_MAGIC);
+			out.writeInt(BINARY_VERSION);
+			out.writeInt(matrix.rowCount);
+			out.writeInt(matrix.columnCount);
+			out.writeLong(matrix.getNonZeroCount());
+			writeStrings(out, modelNames, matrix.rowCount);
+			writeStrings(out, featureNames, matrix.columnCount);
+			
+			long pointer = 0;
+			out.writeLong(pointer);
+			for (int i=0; i<matrix.rowCount; i++) {
+				pointer += matrix.getRowColumns(i).length;
+				out.writeLong(pointer);
+			}
+			for (int i=0; i<matrix.rowCount; i++)
+				for (int column : matrix.getRowColumns(i))
+					out.writeInt(column);
+			for (int i=0; i<matrix.rowCount; i++)
+				for (double value : matrix.getRowValues(i))
+					out.writeDouble(value);
+		} finally {
+			out.close();
+		}
+	}
+	
+	public static VSMFile readBinary(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+		try {
+			if (in.readInt() != BINARY_MAGIC)
+				throw new IOException("not a binary vsm file: " + path);
+			int version = in.readInt();
+			if (version != BINARY_VERSION)
+				throw new IOException("unsupported binary vsm version " + version + ": " + path);
+			int rowCount = in.readInt();
+			int columnCount = in.readInt();
+			in.readLong(); // non-zero count, implied by the row pointers
+			List<String> modelNames = readStrings(in, rowCount);
+			List<String> featureNames = readStrings(in, columnCount);
+			
+			long[] rowPointers = new long[rowCount+1];
+			for (int i=0; i<=rowCount; i++)
+				rowPointers[i] = in.readLong();
+			
+			SparseRowMatrixBuilder matrix = new SparseRowMatrixBuilder(rowCount, columnCount, FREQ.FREQ_SUM);
+			int[][] columns = new int[rowCount][];
+			for (int i=0; i<rowCount; i++) {
+				columns[i] = new int[(int) (rowPointers[i+1] - rowPointers[i])];
+				for (int k=0; k<columns[i].length; k++)
+					columns[i][k] = in.readInt();
+			}
+			for (int i=0; i<rowCount; i++) {
+				double[] values = new double[columns[i].length];
+				for (int k=0; k<values.length; k++)
+					values[k] = in.readDouble();
+				matrix.setRow(i, columns[i], values);
+			}
+			return new VSMFile(matrix, modelNames, featureNames);
+		} finally {
+			in.close();
+		}
+	}
+	
+	// strings as length-prefixed UTF-8 (no size limit unlike writeUTF); missing names are written as empty strings
+	private static void writeStrings(DataOutputStream out, List<String> strings, int count) throws IOException {
+		for (int i=0; i<count; i++) {
+			byte[] bytes = (i < strings.size()?strings.get(i):"").getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	private static List<String> readStrings(DataInputStream in, int count) throws IOException {
+		List<String> strings = new ArrayList<String>(count);
+		for (int i=0; i<count; i++) {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			strings.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return strings;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015-2022 Onder Babur
+ * 
+ * This file is part of SAMOS Model Analytics and Management Framework.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this 
+ * software and associated documentation files (the "Software"), to deal in the Software 
+ * without restriction, including without limitation the rights to use, copy, modify, 
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to 
+ * permit persons to whom the Software is furnished to do so, subject to the following 
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ *  or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR 
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * @author Onder Babur
+ * @version 1.0
+ */
+
+package nl.tue.set.samos.vsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class holds the persisted state of a (QUADRATIC) vsm computation, for updating the vsm incrementally when models are added, changed or removed:
+ * 
+ * - the parameters it was computed with
+ * - the vocabulary (i.e. the columns) as the feature file lines they were parsed from, and the names in it which were not found in the dictionary
+ * - per model: the hash of its feature file, and its raw (unweighted) row over the vocabulary
+*/ 
+public class VSMState implements Serializable {
+	private static final long serialVersionUID = -3021954617380213875L;
+	
+	static final Logger logger = LoggerFactory.getLogger(VSMState.class);
+	
+	public final String parametersId;
+	public final ArrayList<String> vocabulary;
+	public final HashSet<String> unknownNames;
+	public final HashMap<String, ModelRow> models = new HashMap<String, ModelRow>();
+	
+	public VSMState(String parametersId, ArrayList<String> vocabulary, HashSet<String> unknownNames) {
+		this.parametersId = parametersId;
+		this.vocabulary = vocabulary;
+		this.unknownNames = unknownNames;
+	}
+	
+	// raw row of a model, with the column indices referring to the vocabulary 
+	public static class ModelRow implements Serializable {
+		private static final long serialVersionUID = 4926043342001687466L;
+		
+		public final String featureHash;
+		public final int[] columns;
+		public final double[] values;
+		
+		public ModelRow(String featureHash, int[] columns, double[] values) {
+			this.featureHash = featureHash;
+			this.columns = columns;
+			this.values = values;
+		}
+	}
+	
+	public void save(File file) throws IOException {
+		ObjectOutputStream s = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			s.writeObject(this);
+		} finally {
+			s.close();
+		}
+	}
+	
+	// the stored state, or null if there is none (or it cannot be read)  
+	public static VSMState load(File file) {
+		if (!file.exists()) 
+			return null;
+		
+		try {
+			ObjectInputStream s = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return (VSMState) s.readObject();
+			} finally {
+				s.close();
+			}
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			logger.error("cannot read vsm state " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+}